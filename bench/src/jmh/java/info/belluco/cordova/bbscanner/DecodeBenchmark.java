@@ -0,0 +1,90 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Decodes one corpus frame per operation, the way the preview decode loop
+ * does: a PlanarYUVLuminanceSource over the frame, decoded by a
+ * FrameDecoder with the default formats (plus the frame's own, for AZTEC)
+ * or only with the frame's own format. decodeFullyEscalated measures the
+ * frame at the highest DecodeEscalation level, the worst case of a scan
+ * that keeps missing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({"QR_CODE", "DATA_MATRIX", "AZTEC", "PDF_417", "CODE_128", "EAN_13"})
+    public String symbology;
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String resolution;
+
+    @Param({FrameCorpus.CLEAN, FrameCorpus.BLUR, FrameCorpus.NOISE})
+    public String distortion;
+
+    private byte[] frame;
+    private int width;
+    private int height;
+    private FrameDecoder defaultFormats;
+    private FrameDecoder matchingFormat;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        width = Integer.parseInt(size[0]);
+        height = Integer.parseInt(size[1]);
+        frame = FrameCorpus.frame(symbology, width, height, distortion);
+
+        BarcodeFormat format = BarcodeFormat.valueOf(symbology);
+        Set<BarcodeFormat> formats = EnumSet.copyOf(ScanFormats.DEFAULT_FORMATS);
+        formats.add(format);
+        defaultFormats = new FrameDecoder(formats, Collections.<DecodeHintType, Object>emptyMap(), false);
+        matchingFormat = new FrameDecoder(EnumSet.of(format), Collections.<DecodeHintType, Object>emptyMap(), false);
+
+        // A clean frame that no longer decodes is a regression, not a slow run
+        Result result = defaultFormats.decode(source());
+        if (FrameCorpus.CLEAN.equals(distortion) && (result == null || !FrameCorpus.text(symbology).equals(result.getText())))
+            throw new IllegalStateException(symbology + " " + resolution + " did not decode");
+    }
+
+    private PlanarYUVLuminanceSource source() {
+        return new PlanarYUVLuminanceSource(frame, width, height, 0, 0, width, height, false);
+    }
+
+    @Benchmark
+    public Result decodeDefaultFormats() {
+        return defaultFormats.decode(source());
+    }
+
+    @Benchmark
+    public Result decodeMatchingFormat() {
+        return matchingFormat.decode(source());
+    }
+
+    @Benchmark
+    public Result decodeFullyEscalated() {
+        return defaultFormats.decode(source(), DecodeEscalation.ROTATED);
+    }
+}
@@ -0,0 +1,109 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+/**
+ * The steps around decoding: checking a frame's sharpness and motion,
+ * copying its rotated, cropped luminance into a pooled buffer, and
+ * filtering results by format and duplicates. In steady state the copy and
+ * the result filter should not allocate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramePipelineBenchmark {
+
+    @State(Scope.Thread)
+    public static class Frame {
+
+        @Param({"640x480", "1280x720", "1920x1080"})
+        public String resolution;
+
+        @Param({"0", "90"})
+        public int rotation;
+
+        byte[] data;
+        int width;
+        int height;
+        int cropWidth;
+        int cropHeight;
+        FrameBufferPool buffers;
+        PreviewFrame previewFrame;
+        FrameQualityFilter qualityFilter;
+
+        @Setup
+        public void setUp() throws IOException {
+            String[] size = resolution.split("x");
+            width = Integer.parseInt(size[0]);
+            height = Integer.parseInt(size[1]);
+            data = FrameCorpus.frame("QR_CODE", width, height, FrameCorpus.CLEAN);
+            // Framing rect of a full screen preview: the centered 80% of the short side
+            cropWidth = cropHeight = Math.min(width, height) * 4 / 5;
+            buffers = new FrameBufferPool(2, new ScanMetrics());
+            previewFrame = new PreviewFrame(data, width, height, rotation, null);
+            qualityFilter = new FrameQualityFilter(1, 1000, new ScanMetrics());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Results {
+
+        private static final int DISTINCT_CODES = 32;
+
+        Result[] results = new Result[DISTINCT_CODES];
+        ResultFilter filter;
+        long now;
+        int next;
+
+        @Setup
+        public void setUp() {
+            for (int i = 0; i < results.length; i++)
+                results[i] = new Result("code " + i, null, null, BarcodeFormat.QR_CODE);
+            filter = new ResultFilter(ScanFormats.DEFAULT_FORMATS,
+                    new DuplicateFilter(1000, 64, new ScanMetrics()));
+        }
+    }
+
+    @Benchmark
+    public byte[] extractLuminance(Frame frame) {
+        int rotatedWidth = frame.rotation == 90 ? frame.height : frame.width;
+        int rotatedHeight = frame.rotation == 90 ? frame.width : frame.height;
+        byte[] buffer = frame.buffers.acquire(frame.cropWidth * frame.cropHeight);
+        LuminanceExtractor.extract(frame.data, frame.width, frame.height, frame.width, frame.rotation,
+                (rotatedWidth - frame.cropWidth) / 2, (rotatedHeight - frame.cropHeight) / 2,
+                frame.cropWidth, frame.cropHeight, buffer);
+        frame.buffers.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    public boolean checkQuality(Frame frame) {
+        int rotatedWidth = frame.previewFrame.displayWidth();
+        int rotatedHeight = frame.previewFrame.displayHeight();
+        int left = (rotatedWidth - frame.cropWidth) / 2;
+        int top = (rotatedHeight - frame.cropHeight) / 2;
+        return frame.qualityFilter.accept(frame.previewFrame, left, top, left + frame.cropWidth, top + frame.cropHeight);
+    }
+
+    @Benchmark
+    public boolean filterResult(Results results) {
+        // 32 codes cycling every 32 simulated frames of 10ms: all within the window
+        results.now += 10;
+        Result result = results.results[results.next++ & (Results.DISTINCT_CODES - 1)];
+        return results.filter.accept(result, results.now);
+    }
+}
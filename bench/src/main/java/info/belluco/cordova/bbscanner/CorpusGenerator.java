@@ -0,0 +1,77 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.MultiFormatWriter;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the benchmark corpus: one grayscale PNG per symbology at one pixel
+ * per module, and corpus.txt listing the text each code holds. FrameCorpus
+ * scales these into camera sized frames at benchmark setup.
+ */
+public final class CorpusGenerator {
+
+    static final Map<BarcodeFormat, String> CODES = new LinkedHashMap<BarcodeFormat, String>();
+
+    static {
+        CODES.put(BarcodeFormat.QR_CODE, "https://example.com/labels/000123");
+        CODES.put(BarcodeFormat.DATA_MATRIX, "LOT 4711 EXP 2027-01");
+        CODES.put(BarcodeFormat.AZTEC, "BBSCANNER-AZTEC-0001");
+        CODES.put(BarcodeFormat.PDF_417, "PDF417 shipping label 0001");
+        CODES.put(BarcodeFormat.CODE_128, "BBS-128-0001");
+        CODES.put(BarcodeFormat.EAN_13, "4006381333931");
+    }
+
+    private CorpusGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException, WriterException {
+        File directory = new File(args.length > 0 ? args[0] : "corpus");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+
+        Writer index = new OutputStreamWriter(new FileOutputStream(new File(directory, "corpus.txt")), "UTF-8");
+        try {
+            for (Map.Entry<BarcodeFormat, String> code : CODES.entrySet()) {
+                BitMatrix matrix = encode(code.getKey(), code.getValue());
+                ImageIO.write(toImage(matrix), "png", new File(directory, code.getKey().name() + ".png"));
+                index.write(code.getKey().name() + ' ' + code.getValue() + '\n');
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private static BitMatrix encode(BarcodeFormat format, String text) throws WriterException {
+        Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+        hints.put(EncodeHintType.MARGIN, 4);
+        MultiFormatWriter writer = new MultiFormatWriter();
+        BitMatrix matrix = writer.encode(text, format, 0, 0, hints);
+        if (matrix.getHeight() > 1)
+            return matrix;
+        // Linear codes come out one pixel high, give them a third of their width
+        return writer.encode(text, format, matrix.getWidth(), matrix.getWidth() / 3, hints);
+    }
+
+    private static BufferedImage toImage(BitMatrix matrix) {
+        BufferedImage image = new BufferedImage(matrix.getWidth(), matrix.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        for (int y = 0; y < matrix.getHeight(); y++) {
+            for (int x = 0; x < matrix.getWidth(); x++)
+                image.getRaster().setSample(x, y, 0, matrix.get(x, y) ? 0 : 255);
+        }
+        return image;
+    }
+}
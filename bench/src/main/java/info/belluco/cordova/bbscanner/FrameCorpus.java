@@ -0,0 +1,114 @@
+package info.belluco.cordova.bbscanner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Builds camera frames from the corpus: the symbology's code, scaled up to
+ * fill about half of a mid-gray NV21 frame of the given size, optionally
+ * blurred or with sensor noise. Frames are deterministic, so runs compare.
+ */
+final class FrameCorpus {
+
+    static final String CLEAN = "clean";
+    static final String BLUR = "blur";
+    static final String NOISE = "noise";
+
+    private static final int BACKGROUND = 160;
+    private static final long NOISE_SEED = 42;
+    private static final double NOISE_SIGMA = 16;
+
+    private FrameCorpus() {
+    }
+
+    static File directory() {
+        return new File(System.getProperty("bbscanner.corpus", "corpus"));
+    }
+
+    /** Text held by the symbology's code, from corpus.txt. */
+    static String text(String symbology) throws IOException {
+        for (String line : Files.readAllLines(new File(directory(), "corpus.txt").toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith(symbology + ' '))
+                return line.substring(symbology.length() + 1);
+        }
+        throw new IOException("No " + symbology + " in corpus.txt");
+    }
+
+    /** Returns an NV21 frame: width * height luminance bytes, then neutral chroma. */
+    static byte[] frame(String symbology, int width, int height, String distortion) throws IOException {
+        BufferedImage code = ImageIO.read(new File(directory(), symbology + ".png"));
+        if (code == null)
+            throw new IOException("No " + symbology + ".png in " + directory());
+
+        int scale = Math.max(1, Math.min(width / 2 / code.getWidth(), height / 2 / code.getHeight()));
+        int left = (width - code.getWidth() * scale) / 2;
+        int top = (height - code.getHeight() * scale) / 2;
+
+        int[] luminance = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int codeX = (x - left) / scale;
+                int codeY = (y - top) / scale;
+                boolean inside = x >= left && y >= top && codeX < code.getWidth() && codeY < code.getHeight();
+                luminance[y * width + x] = inside ? code.getRaster().getSample(codeX, codeY, 0) : BACKGROUND;
+            }
+        }
+
+        if (BLUR.equals(distortion)) {
+            // Two box blurs approximate a gaussian of a couple of pixels
+            luminance = boxBlur(luminance, width, height, 2);
+            luminance = boxBlur(luminance, width, height, 2);
+        } else if (NOISE.equals(distortion)) {
+            Random random = new Random(NOISE_SEED);
+            for (int i = 0; i < luminance.length; i++)
+                luminance[i] += (int) Math.round(random.nextGaussian() * NOISE_SIGMA);
+        } else if (!CLEAN.equals(distortion)) {
+            throw new IllegalArgumentException("Unknown distortion " + distortion);
+        }
+
+        byte[] frame = new byte[width * height * 3 / 2];
+        for (int i = 0; i < luminance.length; i++)
+            frame[i] = (byte) Math.max(0, Math.min(255, luminance[i]));
+        for (int i = luminance.length; i < frame.length; i++)
+            frame[i] = (byte) 128;
+        return frame;
+    }
+
+    /** An NV21 frame without any code. */
+    static byte[] empty(int width, int height) {
+        byte[] frame = new byte[width * height * 3 / 2];
+        Arrays.fill(frame, 0, width * height, (byte) BACKGROUND);
+        Arrays.fill(frame, width * height, frame.length, (byte) 128);
+        return frame;
+    }
+
+    private static int[] boxBlur(int[] in, int width, int height, int radius) {
+        int[] out = new int[in.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sum = 0;
+                int count = 0;
+                for (int dy = -radius; dy <= radius; dy++) {
+                    int sy = y + dy;
+                    if (sy < 0 || sy >= height)
+                        continue;
+                    for (int dx = -radius; dx <= radius; dx++) {
+                        int sx = x + dx;
+                        if (sx < 0 || sx >= width)
+                            continue;
+                        sum += in[sy * width + sx];
+                        count++;
+                    }
+                }
+                out[y * width + x] = sum / count;
+            }
+        }
+        return out;
+    }
+}
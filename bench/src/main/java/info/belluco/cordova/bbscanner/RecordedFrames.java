@@ -0,0 +1,88 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads frame sequences for ReplayFrameSource, or builds one from the
+ * benchmark corpus.
+ */
+final class RecordedFrames {
+
+    /** Raw frames carry their size in the file name, as in frame-0001_1280x720.yuv. */
+    private static final Pattern RAW_FRAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.(yuv|nv21)");
+
+    private RecordedFrames() {
+    }
+
+    /**
+     * Loads every frame in a directory, in file name order: raw NV21 dumps
+     * of the camera preview, and images (PNG, JPEG) whose luminance becomes
+     * the Y plane.
+     */
+    static List<PreviewFrame> load(File directory, int rotation) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot list " + directory);
+        Arrays.sort(files);
+
+        List<PreviewFrame> frames = new ArrayList<PreviewFrame>();
+        for (File file : files) {
+            Matcher raw = RAW_FRAME.matcher(file.getName());
+            if (raw.matches()) {
+                int width = Integer.parseInt(raw.group(1));
+                int height = Integer.parseInt(raw.group(2));
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (data.length < width * height)
+                    throw new IOException(file + " is smaller than " + width + "x" + height);
+                frames.add(new PreviewFrame(data, width, height, rotation, file));
+                continue;
+            }
+            BufferedImage image = ImageIO.read(file);
+            if (image != null)
+                frames.add(new PreviewFrame(toNV21(image), image.getWidth(), image.getHeight(), rotation, file));
+        }
+        if (frames.isEmpty())
+            throw new IOException("No frames in " + directory);
+        return frames;
+    }
+
+    /**
+     * Every corpus symbology in view for framesPerCode frames, each followed
+     * by as many frames without a code.
+     */
+    static List<PreviewFrame> fromCorpus(int width, int height, int framesPerCode) throws IOException {
+        List<PreviewFrame> frames = new ArrayList<PreviewFrame>();
+        PreviewFrame empty = new PreviewFrame(FrameCorpus.empty(width, height), width, height, 0, null);
+        for (BarcodeFormat symbology : CorpusGenerator.CODES.keySet()) {
+            PreviewFrame code = new PreviewFrame(FrameCorpus.frame(symbology.name(), width, height, FrameCorpus.CLEAN),
+                    width, height, 0, symbology);
+            for (int i = 0; i < framesPerCode; i++)
+                frames.add(code);
+            for (int i = 0; i < framesPerCode; i++)
+                frames.add(empty);
+        }
+        return frames;
+    }
+
+    private static byte[] toNV21(BufferedImage image) {
+        BufferedImage gray = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+        new ColorConvertOp(null).filter(image, gray);
+        int size = image.getWidth() * image.getHeight();
+        byte[] data = new byte[size * 3 / 2];
+        gray.getRaster().getDataElements(0, 0, image.getWidth(), image.getHeight(), data);
+        Arrays.fill(data, size, data.length, (byte) 128);
+        return data;
+    }
+}
@@ -0,0 +1,77 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FrameSource replaying recorded frames at a fixed frame rate, the way a
+ * camera delivers its preview: a request is answered with the frame that
+ * is current at the next frame time, and frames nobody asked for are
+ * skipped. The recording loops.
+ */
+final class ReplayFrameSource implements FrameSource {
+
+    private final List<PreviewFrame> frames;
+    private final long frameIntervalNanos;
+    private final ScheduledExecutorService camera;
+    private final AtomicLong framesDelivered = new AtomicLong();
+    private long startNanos;
+
+    ReplayFrameSource(List<PreviewFrame> frames, double fps) {
+        if (frames.isEmpty())
+            throw new IllegalArgumentException("No frames to replay");
+        this.frames = frames;
+        this.frameIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / fps);
+        this.camera = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Replay camera");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.startNanos = System.nanoTime();
+    }
+
+    /** Restarts the recording from its first frame. */
+    synchronized void rewind() {
+        startNanos = System.nanoTime();
+        framesDelivered.set(0);
+    }
+
+    @Override
+    public void requestFrame(final Callback callback) {
+        long now = System.nanoTime();
+        long start;
+        synchronized (this) {
+            start = startNanos;
+        }
+        // The first frame time at or after now
+        final long index = (now - start + frameIntervalNanos - 1) / frameIntervalNanos;
+        long delay = start + index * frameIntervalNanos - now;
+        camera.schedule(new Runnable() {
+            @Override
+            public void run() {
+                framesDelivered.incrementAndGet();
+                callback.onFrame(frames.get((int) (index % frames.size())));
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /** Frames the camera would have shown since the last rewind. */
+    synchronized long framesShown() {
+        return (System.nanoTime() - startNanos) / frameIntervalNanos + 1;
+    }
+
+    long framesDelivered() {
+        return framesDelivered.get();
+    }
+
+    void close() {
+        camera.shutdownNow();
+    }
+}
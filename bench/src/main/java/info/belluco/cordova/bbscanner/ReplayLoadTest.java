@@ -0,0 +1,180 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays recorded frames through the same ScanSession and DecodeLoop that
+ * BBScanner drives, without a camera, and prints how many results were
+ * delivered and the scanner's metrics as JSON.
+ *
+ * In multiple mode one multipleScan runs for the whole time and is paused
+ * for a second halfway. In single mode scans are started back to back, each
+ * ending with its first result.
+ *
+ *   gradle replay --args="--mode single --fps 30 --seconds 10 --workers 2"
+ *
+ * Options: --frames DIR (default: frames built from the corpus), --fps,
+ * --seconds, --mode single|multiple, --workers, --decodeRate,
+ * --duplicateWindow MS, --batchInterval MS, --batchSize, --formats A,B.
+ */
+public final class ReplayLoadTest {
+
+    private static final long PAUSE_MILLIS = 1000;
+    private static final long SINGLE_SCAN_TIMEOUT_MILLIS = 5000;
+
+    private ReplayLoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        double fps = Double.parseDouble(option(options, "fps", "30"));
+        long seconds = Long.parseLong(option(options, "seconds", "10"));
+        boolean multiple = option(options, "mode", "multiple").equals("multiple");
+        int workers = Integer.parseInt(option(options, "workers", "1"));
+        double decodeRate = Double.parseDouble(option(options, "decodeRate", "0"));
+        long duplicateWindow = Long.parseLong(option(options, "duplicateWindow", "0"));
+        long batchInterval = Long.parseLong(option(options, "batchInterval", "0"));
+        int batchSize = Integer.parseInt(option(options, "batchSize", "0"));
+
+        Set<BarcodeFormat> formats = EnumSet.copyOf(ScanFormats.DEFAULT_FORMATS);
+        formats.add(BarcodeFormat.AZTEC);
+        if (options.containsKey("formats"))
+            formats = ScanFormats.forNames(Arrays.asList(options.get("formats").split(",")));
+
+        List<PreviewFrame> frames = options.containsKey("frames")
+                ? RecordedFrames.load(new File(options.get("frames")), 0)
+                : RecordedFrames.fromCorpus(1280, 720, (int) Math.max(1, fps / 2));
+
+        final ScanMetrics metrics = new ScanMetrics();
+        final AtomicLong results = new AtomicLong();
+        final Semaphore scanEnded = new Semaphore(0);
+        // Stands in for the UI thread results are delivered on
+        ExecutorService mainThread = Executors.newSingleThreadExecutor(daemon("Main"));
+        ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(daemon("Batch timer"));
+        ReplayFrameSource source = new ReplayFrameSource(frames, fps);
+
+        ScanSession session = new ScanSession(metrics);
+        DecodeLoop loop = new DecodeLoop(source, metrics, mainThread, session);
+        loop.setDecoderFactory(new ScanDecoderFactory(formats, null, false));
+        session.setDecodeLoop(loop);
+
+        ResultBatcher batcher = null;
+        if (multiple && (batchInterval > 0 || batchSize > 0)) {
+            batcher = new ResultBatcher(batchInterval, batchSize, batchTimer, new ResultBatcher.Sink() {
+                @Override
+                public void flush(org.json.JSONArray batch, List<byte[]> buffers) {
+                    results.addAndGet(batch.length());
+                    metrics.batchesSent.incrementAndGet();
+                }
+            });
+        }
+        DuplicateFilter duplicates = duplicateWindow > 0 ? new DuplicateFilter(duplicateWindow, 64, metrics) : null;
+        session.configure(multiple, new ResultFilter(formats, multiple ? duplicates : null), batcher,
+                new FrameScheduler(decodeRate, false, 1, workers, metrics), workers, false);
+
+        ScanSession.ResultCallback callback = new ScanSession.ResultCallback() {
+            @Override
+            public void sendResult(Object payload, boolean keepCallback) {
+                results.incrementAndGet();
+                if (!keepCallback)
+                    scanEnded.release();
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+
+        long scans = 0;
+        long timedOut = 0;
+        long started = System.nanoTime();
+        long end = started + TimeUnit.SECONDS.toNanos(seconds);
+        source.rewind();
+        if (multiple) {
+            session.start(callback);
+            session.startDecoding();
+            scans++;
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 2);
+            session.pause();
+            Thread.sleep(PAUSE_MILLIS);
+            session.resume();
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime())));
+            session.stop();
+        } else {
+            while (System.nanoTime() < end) {
+                session.start(callback);
+                session.startDecoding();
+                scans++;
+                if (!scanEnded.tryAcquire(SINGLE_SCAN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    session.stop();
+                    timedOut++;
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - started) / 1e9;
+        // Let results already posted to the main thread arrive
+        mainThread.shutdown();
+        mainThread.awaitTermination(1, TimeUnit.SECONDS);
+
+        JSONObject report = new JSONObject();
+        report.put("mode", multiple ? "multiple" : "single");
+        report.put("fps", fps);
+        report.put("seconds", elapsed);
+        report.put("workers", workers);
+        report.put("scans", scans);
+        report.put("scansTimedOut", timedOut);
+        report.put("results", results.get());
+        report.put("resultsPerSecond", results.get() / elapsed);
+        report.put("framesShown", source.framesShown());
+        report.put("framesDelivered", source.framesDelivered());
+        report.put("metrics", metrics.toJSON());
+        System.out.println(report.toString(2));
+
+        loop.stop();
+        source.close();
+        batchTimer.shutdownNow();
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--"))
+                throw new IllegalArgumentException("Expected an option instead of " + args[i]);
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String fallback) {
+        String value = options.get(name);
+        return value != null ? value : fallback;
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
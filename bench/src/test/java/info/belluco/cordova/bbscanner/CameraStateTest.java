@@ -0,0 +1,62 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Test;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CameraStateTest {
+
+    private final CameraState state = new CameraState();
+
+    @Test
+    public void awaitReturnsRightAwayInTheRequestedState() throws Exception {
+        assertTrue(state.awaitClosed(0));
+        state.set(CameraState.State.OPEN);
+        assertTrue(state.awaitSettled(0));
+    }
+
+    @Test
+    public void awaitReturnsOnceTheStateIsReached() throws Exception {
+        state.set(CameraState.State.CLOSING);
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                state.set(CameraState.State.CLOSED);
+            }
+        });
+        closer.start();
+        assertTrue(state.awaitClosed(5000));
+        closer.join();
+    }
+
+    @Test
+    public void awaitTimesOut() throws Exception {
+        state.set(CameraState.State.OPENING);
+        assertFalse(state.await(EnumSet.of(CameraState.State.OPEN), 10));
+        assertEquals(CameraState.State.OPENING, state.get());
+    }
+
+    @Test
+    public void startClosingLeavesAClosedCameraClosed() {
+        state.startClosing();
+        assertEquals(CameraState.State.CLOSED, state.get());
+        state.set(CameraState.State.OPEN);
+        state.startClosing();
+        assertEquals(CameraState.State.CLOSING, state.get());
+    }
+
+    @Test
+    public void startOpeningLeavesAnOpenCameraOpen() {
+        state.set(CameraState.State.OPEN);
+        assertFalse(state.startOpening());
+        assertEquals(CameraState.State.OPEN, state.get());
+        state.set(CameraState.State.CLOSED);
+        assertTrue(state.startOpening());
+        assertEquals(CameraState.State.OPENING, state.get());
+        assertFalse(state.startOpening());
+    }
+}
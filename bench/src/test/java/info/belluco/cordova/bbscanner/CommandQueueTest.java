@@ -0,0 +1,128 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommandQueueTest {
+
+    private final ScanMetrics metrics = new ScanMetrics();
+    private final CommandQueue commands = new CommandQueue(metrics);
+    private final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        commands.shutdown();
+    }
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                ran.add(name);
+            }
+        };
+    }
+
+    // Waits for everything queued so far to run
+    private void drain() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        commands.query(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    // Holds the queue until the returned latch is released, so the commands
+    // submitted meanwhile are still pending
+    private CountDownLatch hold() {
+        final CountDownLatch release = new CountDownLatch(1);
+        commands.query(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return release;
+    }
+
+    @Test
+    public void runsCommandsInOrder() throws Exception {
+        for (int i = 0; i < 20; i++)
+            commands.submit(record("command " + i));
+        drain();
+        assertEquals(20, ran.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals("command " + i, ran.get(i));
+    }
+
+    @Test
+    public void repeatedCommandOnlyRunsItsDuplicateAction() throws Exception {
+        CountDownLatch release = hold();
+        commands.submit("prepare[]", record("prepare"), record("status"));
+        commands.submit("prepare[]", record("prepare"), record("status"));
+        release.countDown();
+        drain();
+        assertEquals(Arrays.asList("prepare", "status"), ran);
+        assertEquals(1, metrics.commandsCoalesced.get());
+    }
+
+    @Test
+    public void repeatAfterTheCommandCompletedRunsAgain() throws Exception {
+        commands.submit("enableLight[]", record("enableLight"), record("status"));
+        drain();
+        commands.submit("enableLight[]", record("enableLight"), record("status"));
+        drain();
+        assertEquals(Arrays.asList("enableLight", "enableLight"), ran);
+        assertEquals(0, metrics.commandsCoalesced.get());
+    }
+
+    @Test
+    public void differentArgumentsAreNotRedundant() throws Exception {
+        commands.submit("useCamera[0]", record("back"), record("status"));
+        commands.submit("useCamera[1]", record("front"), record("status"));
+        drain();
+        assertEquals(Arrays.asList("back", "front"), ran);
+    }
+
+    @Test
+    public void queriesDoNotBreakARun() throws Exception {
+        CountDownLatch release = hold();
+        commands.submit("show[]", record("show"), record("status"));
+        commands.query(record("getStatus"));
+        commands.submit("show[]", record("show"), record("status"));
+        release.countDown();
+        drain();
+        assertEquals(Arrays.asList("show", "getStatus", "status"), ran);
+    }
+
+    @Test
+    public void otherCommandsAndInvalidateBreakARun() throws Exception {
+        CountDownLatch release = hold();
+        commands.submit("show[]", record("show"), record("status"));
+        commands.submit(record("scan"));
+        commands.submit("show[]", record("show"), record("status"));
+        commands.invalidate();
+        commands.submit("show[]", record("show"), record("status"));
+        release.countDown();
+        drain();
+        assertEquals(Arrays.asList("show", "scan", "show", "show"), ran);
+        assertEquals(0, metrics.commandsCoalesced.get());
+    }
+}
@@ -0,0 +1,60 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodeEscalationTest {
+
+    private final ScanMetrics metrics = new ScanMetrics();
+
+    @Test
+    public void escalatesAfterMissesPerLevel() {
+        DecodeEscalation escalation = new DecodeEscalation(2, DecodeEscalation.ROTATED, metrics);
+        escalation.onMiss();
+        assertEquals(DecodeEscalation.FAST, escalation.level());
+        escalation.onMiss();
+        assertEquals(DecodeEscalation.TRY_HARDER, escalation.level());
+        escalation.onMiss();
+        escalation.onMiss();
+        assertEquals(DecodeEscalation.INVERTED, escalation.level());
+        assertEquals(2, metrics.decodeEscalations.get());
+    }
+
+    @Test
+    public void stopsAtMaxLevel() {
+        DecodeEscalation escalation = new DecodeEscalation(1, DecodeEscalation.TRY_HARDER, metrics);
+        for (int i = 0; i < 5; i++)
+            escalation.onMiss();
+        assertEquals(DecodeEscalation.TRY_HARDER, escalation.level());
+        assertEquals(1, metrics.decodeEscalations.get());
+    }
+
+    @Test
+    public void resultDropsBackToFast() {
+        DecodeEscalation escalation = new DecodeEscalation(1, DecodeEscalation.ROTATED, metrics);
+        escalation.onMiss();
+        escalation.onMiss();
+        escalation.onResult(escalation.level());
+        assertEquals(DecodeEscalation.FAST, escalation.level());
+        assertEquals(1, metrics.escalatedResults.get());
+        escalation.onResult(DecodeEscalation.FAST);
+        assertEquals(1, metrics.escalatedResults.get());
+    }
+
+    @Test
+    public void disabledWithoutMissesOrLevels() {
+        assertFalse(new DecodeEscalation(0, DecodeEscalation.ROTATED, metrics).isEnabled());
+        assertFalse(new DecodeEscalation(3, DecodeEscalation.FAST, metrics).isEnabled());
+        assertTrue(new DecodeEscalation(3, DecodeEscalation.INVERTED, metrics).isEnabled());
+    }
+
+    @Test
+    public void mapsLevelNames() {
+        assertEquals(DecodeEscalation.TRY_HARDER, DecodeEscalation.levelForName("tryHarder"));
+        assertEquals(DecodeEscalation.ROTATED, DecodeEscalation.levelForName("rotated"));
+        assertEquals(-1, DecodeEscalation.levelForName("fast"));
+    }
+}
@@ -0,0 +1,59 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFilterTest {
+
+    private final ScanMetrics metrics = new ScanMetrics();
+
+    @Test
+    public void suppressesRepeatsWithinTheWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, metrics);
+        assertTrue(filter.accept("a", BarcodeFormat.QR_CODE, 0));
+        assertFalse(filter.accept("a", BarcodeFormat.QR_CODE, 999));
+        assertEquals(1, metrics.duplicatesSuppressed.get());
+    }
+
+    @Test
+    public void everySightingRefreshesTheWindow() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, metrics);
+        assertTrue(filter.accept("a", BarcodeFormat.QR_CODE, 0));
+        assertFalse(filter.accept("a", BarcodeFormat.QR_CODE, 900));
+        assertFalse(filter.accept("a", BarcodeFormat.QR_CODE, 1800));
+        assertTrue(filter.accept("a", BarcodeFormat.QR_CODE, 2800));
+    }
+
+    @Test
+    public void sameTextInAnotherFormatIsNotADuplicate() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, metrics);
+        assertTrue(filter.accept("123", BarcodeFormat.CODE_128, 0));
+        assertTrue(filter.accept("123", BarcodeFormat.CODE_39, 0));
+    }
+
+    @Test
+    public void clearForgetsEverything() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 8, metrics);
+        filter.accept("a", BarcodeFormat.QR_CODE, 0);
+        filter.clear();
+        assertTrue(filter.accept("a", BarcodeFormat.QR_CODE, 10));
+    }
+
+    @Test
+    public void countsEvictionsInsideTheWindowOnTheCallersClock() {
+        DuplicateFilter filter = new DuplicateFilter(1000, 2, metrics);
+        filter.accept("a", BarcodeFormat.QR_CODE, 0);
+        filter.accept("b", BarcodeFormat.QR_CODE, 0);
+        filter.accept("c", BarcodeFormat.QR_CODE, 500);
+        assertEquals(1, metrics.duplicateCacheEvictions.get());
+        // "b" is evicted after its window ended, which is expected
+        filter.accept("d", BarcodeFormat.QR_CODE, 5000);
+        assertEquals(1, metrics.duplicateCacheEvictions.get());
+        // "a" was evicted, so it is delivered again
+        assertTrue(filter.accept("a", BarcodeFormat.QR_CODE, 5001));
+    }
+}
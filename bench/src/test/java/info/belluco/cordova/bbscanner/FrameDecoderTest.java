@@ -0,0 +1,77 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.oned.Code128Writer;
+import com.google.zxing.qrcode.QRCodeWriter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FrameDecoderTest {
+
+    private static final int SIZE = 200;
+
+    private static final Set<BarcodeFormat> FORMATS = EnumSet.of(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128);
+
+    // A QR code and a Code 128 code side by side on white
+    private static PlanarYUVLuminanceSource twoCodes(String qr, String code128) throws Exception {
+        BitMatrix[] codes = {
+                new QRCodeWriter().encode(qr, BarcodeFormat.QR_CODE, SIZE, SIZE),
+                new Code128Writer().encode(code128, BarcodeFormat.CODE_128, SIZE, SIZE)};
+        int width = SIZE * 2;
+        byte[] luminance = new byte[width * SIZE];
+        for (int i = 0; i < codes.length; i++) {
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++)
+                    luminance[y * width + i * SIZE + x] = codes[i].get(x, y) ? 0 : (byte) 255;
+            }
+        }
+        return new PlanarYUVLuminanceSource(luminance, width, SIZE, 0, 0, width, SIZE, false);
+    }
+
+    private static FrameDecoder decoder(Set<BarcodeFormat> formats, boolean multiple) {
+        return new FrameDecoder(formats, Collections.<DecodeHintType, Object>emptyMap(), multiple);
+    }
+
+    @Test
+    public void decodesEveryCodeInMultipleMode() throws Exception {
+        FrameDecoder decoder = decoder(FORMATS, true);
+        // Twice, to check the readers keep their formats between frames
+        for (int frame = 0; frame < 2; frame++) {
+            Result result = decoder.decode(twoCodes("left", "right"));
+            assertNotNull(result);
+            Result[] results = FrameDecoder.getResults(result);
+            assertNotNull(results);
+            Set<String> texts = new HashSet<String>();
+            for (Result code : results)
+                texts.add(code.getText());
+            assertEquals(new HashSet<String>(Arrays.asList("left", "right")), texts);
+        }
+    }
+
+    @Test
+    public void multipleModeKeepsTheRequestedFormats() throws Exception {
+        FrameDecoder decoder = decoder(EnumSet.of(BarcodeFormat.EAN_13), true);
+        assertNull(decoder.decode(twoCodes("left", "right")));
+        assertNull(decoder.decode(twoCodes("left", "right"), DecodeEscalation.TRY_HARDER));
+    }
+
+    @Test
+    public void singleModeReturnsOneCode() throws Exception {
+        Result result = decoder(FORMATS, false).decode(twoCodes("left", "right"));
+        assertNotNull(result);
+        assertNull(FrameDecoder.getResults(result));
+    }
+}
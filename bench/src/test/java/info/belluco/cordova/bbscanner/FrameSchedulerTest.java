@@ -0,0 +1,74 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSchedulerTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ScanMetrics metrics = new ScanMetrics();
+
+    @Test
+    public void unlimitedDropsFramesOnlyWhileBusy() {
+        FrameScheduler scheduler = FrameScheduler.unlimited(metrics);
+        assertTrue(scheduler.onFrame(0));
+        assertFalse(scheduler.onFrame(1));
+        scheduler.onDecodeFinished(5 * MS);
+        assertTrue(scheduler.onFrame(2));
+        assertEquals(3, metrics.framesReceived.get());
+        assertEquals(2, metrics.framesDecoded.get());
+        assertEquals(1, metrics.framesDropped.get());
+    }
+
+    @Test
+    public void decodeRateSpacesDecodes() {
+        FrameScheduler scheduler = new FrameScheduler(10, false, 1, 1, metrics);
+        assertEquals(100, metrics.decodeIntervalMillis.get());
+        assertTrue(scheduler.onFrame(0));
+        scheduler.onDecodeFinished(MS);
+        assertFalse(scheduler.onFrame(50 * MS));
+        assertEquals(50 * MS, scheduler.delayUntilNextDecode(50 * MS));
+        assertTrue(scheduler.onFrame(100 * MS));
+    }
+
+    @Test
+    public void adaptiveModeKeepsTheDecoderUnderMaxLoad() {
+        FrameScheduler scheduler = new FrameScheduler(0, true, 0.5, 1, metrics);
+        assertTrue(scheduler.onFrame(0));
+        scheduler.onDecodeFinished(40 * MS);
+        // 40 ms decodes at 50% load: one decode every 80 ms, from the next decode on
+        assertEquals(80, metrics.decodeIntervalMillis.get());
+        assertTrue(scheduler.onFrame(40 * MS));
+        scheduler.onDecodeFinished(40 * MS);
+        assertFalse(scheduler.onFrame(119 * MS));
+        assertTrue(scheduler.onFrame(120 * MS));
+    }
+
+    @Test
+    public void allowsAsManyFramesInFlightAsWorkers() {
+        FrameScheduler scheduler = new FrameScheduler(0, false, 1, 2, metrics);
+        assertTrue(scheduler.onFrame(0));
+        assertTrue(scheduler.onFrame(1));
+        assertFalse(scheduler.onFrame(2));
+        scheduler.onDecodeFinished(MS);
+        assertTrue(scheduler.onFrame(3));
+    }
+
+    @Test
+    public void cancelledDecodesFreeTheirSlotWithoutChangingTheInterval() {
+        FrameScheduler scheduler = new FrameScheduler(0, true, 0.5, 1, metrics);
+        assertTrue(scheduler.onFrame(0));
+        scheduler.onDecodeFinished(40 * MS);
+        assertTrue(scheduler.onFrame(80 * MS));
+        scheduler.onDecodeCancelled();
+        assertEquals(80, metrics.decodeIntervalMillis.get());
+        assertFalse(scheduler.onFrame(159 * MS));
+        assertTrue(scheduler.onFrame(160 * MS));
+    }
+}
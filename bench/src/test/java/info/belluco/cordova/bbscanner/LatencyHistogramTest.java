@@ -0,0 +1,70 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    private static void recordMillis(LatencyHistogram histogram, long millis) {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() throws Exception {
+        JSONObject json = new LatencyHistogram().toJSON();
+        assertEquals(0, json.getLong("count"));
+        assertEquals(0, json.getDouble("p50"), 0);
+        assertEquals(0, json.getDouble("max"), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinABucketOfTheTruth() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++)
+            recordMillis(histogram, millis);
+        assertWithin(50_000, histogram.percentileMicros(0.50));
+        assertWithin(90_000, histogram.percentileMicros(0.90));
+        assertWithin(99_000, histogram.percentileMicros(0.99));
+    }
+
+    // Buckets are upper bounds, at most 25% above the recorded value
+    private static void assertWithin(long expectedMicros, long actualMicros) {
+        assertTrue(actualMicros + " < " + expectedMicros, actualMicros >= expectedMicros);
+        assertTrue(actualMicros + " > " + expectedMicros + " + 25%", actualMicros <= expectedMicros * 1.25);
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMaximum() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        recordMillis(histogram, 10);
+        recordMillis(histogram, 10);
+        assertEquals(10_000, histogram.percentileMicros(0.99));
+        JSONObject json = histogram.toJSON();
+        assertEquals(2, json.getLong("count"));
+        assertEquals(10, json.getDouble("mean"), 0);
+        assertEquals(10, json.getDouble("max"), 0);
+    }
+
+    @Test
+    public void smallAndHugeDurationsFitTheBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(2_000);
+        histogram.record(TimeUnit.DAYS.toNanos(30));
+        assertEquals(2, histogram.percentileMicros(0.5));
+        assertEquals(TimeUnit.DAYS.toMicros(30), histogram.percentileMicros(1));
+    }
+
+    @Test
+    public void resetClearsEverything() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        recordMillis(histogram, 5);
+        histogram.reset();
+        assertEquals(0, histogram.toJSON().getLong("count"));
+        assertEquals(0, histogram.percentileMicros(0.5));
+    }
+}
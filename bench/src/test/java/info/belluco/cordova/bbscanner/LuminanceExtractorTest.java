@@ -0,0 +1,79 @@
+package info.belluco.cordova.bbscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class LuminanceExtractorTest {
+
+    // 4x3 sensor frame with 2 bytes of padding per row; pixel (x, y) holds 10 * y + x
+    private static final int WIDTH = 4;
+    private static final int HEIGHT = 3;
+    private static final int STRIDE = 6;
+
+    private static byte[] frame() {
+        byte[] data = new byte[STRIDE * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++)
+            for (int x = 0; x < WIDTH; x++)
+                data[y * STRIDE + x] = (byte) (10 * y + x);
+        return data;
+    }
+
+    private static byte[] extract(int rotation, int left, int top, int width, int height) {
+        byte[] out = new byte[width * height];
+        LuminanceExtractor.extract(frame(), WIDTH, HEIGHT, STRIDE, rotation, left, top, width, height, out);
+        return out;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            out[i] = (byte) values[i];
+        return out;
+    }
+
+    @Test
+    public void copiesTheCropWithoutRotation() {
+        assertArrayEquals(bytes(11, 12, 21, 22), extract(0, 1, 1, 2, 2));
+    }
+
+    @Test
+    public void rotatesClockwiseBy90() {
+        assertArrayEquals(bytes(
+                20, 10, 0,
+                21, 11, 1,
+                22, 12, 2,
+                23, 13, 3), extract(90, 0, 0, 3, 4));
+    }
+
+    @Test
+    public void rotatesBy180() {
+        assertArrayEquals(bytes(
+                23, 22, 21, 20,
+                13, 12, 11, 10,
+                3, 2, 1, 0), extract(180, 0, 0, 4, 3));
+    }
+
+    @Test
+    public void rotatesClockwiseBy270() {
+        assertArrayEquals(bytes(
+                3, 13, 23,
+                2, 12, 22,
+                1, 11, 21,
+                0, 10, 20), extract(270, 0, 0, 3, 4));
+    }
+
+    @Test
+    public void cropsInRotatedCoordinates() {
+        // Rows 1 and 2, columns 1 and 2 of the 90 degree rotation above
+        assertArrayEquals(bytes(11, 1, 12, 2), extract(90, 1, 1, 2, 2));
+    }
+
+    @Test
+    public void extractingARegionMatchesThatPartOfTheWholeFrame() {
+        // The 2x2 block at (1, 2) of the 3x4 frame rotated by 90 degrees
+        byte[] whole = extract(90, 0, 0, 3, 4);
+        byte[] region = extract(90, 1, 2, 2, 2);
+        assertArrayEquals(bytes(whole[2 * 3 + 1], whole[2 * 3 + 2], whole[3 * 3 + 1], whole[3 * 3 + 2]), region);
+    }
+}
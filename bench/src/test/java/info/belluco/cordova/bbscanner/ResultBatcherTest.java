@@ -0,0 +1,88 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResultBatcherTest {
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final List<JSONArray> batches = Collections.synchronizedList(new ArrayList<JSONArray>());
+    private final List<List<byte[]>> buffers = Collections.synchronizedList(new ArrayList<List<byte[]>>());
+    private final CountDownLatch flushed = new CountDownLatch(1);
+
+    private final ResultBatcher.Sink sink = new ResultBatcher.Sink() {
+        @Override
+        public void flush(JSONArray batch, List<byte[]> batchBuffers) {
+            batches.add(batch);
+            buffers.add(batchBuffers);
+            flushed.countDown();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        timer.shutdownNow();
+    }
+
+    @Test
+    public void flushesWhenFull() {
+        ResultBatcher batcher = new ResultBatcher(0, 2, timer, sink);
+        batcher.add("a");
+        assertEquals(0, batches.size());
+        batcher.add("b");
+        batcher.add("c");
+        assertEquals(1, batches.size());
+        assertEquals("[\"a\",\"b\"]", batches.get(0).toString());
+    }
+
+    @Test
+    public void flushesAfterTheInterval() throws Exception {
+        ResultBatcher batcher = new ResultBatcher(20, 0, timer, sink);
+        batcher.add("a");
+        batcher.add("b");
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).length());
+    }
+
+    @Test
+    public void flushSendsPendingResultsOnlyOnce() {
+        ResultBatcher batcher = new ResultBatcher(60000, 0, timer, sink);
+        batcher.flush();
+        assertEquals(0, batches.size());
+        batcher.add("a");
+        batcher.flush();
+        batcher.flush();
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void keepsTheBuffersOfBinaryResultsInOrder() throws Exception {
+        ResultBatcher batcher = new ResultBatcher(0, 3, timer, sink);
+        byte[] first = {1};
+        byte[] second = {2, 3};
+        batcher.add(new BinaryPayload(new JSONObject().put("rawBytes", true), Arrays.asList(first)));
+        batcher.add("plain");
+        batcher.add(new BinaryPayload(new JSONObject().put("rawBytes", true), Arrays.asList(second)));
+        assertEquals(3, batches.get(0).length());
+        List<byte[]> sent = buffers.get(0);
+        assertEquals(2, sent.size());
+        assertArrayEquals(first, sent.get(0));
+        assertArrayEquals(second, sent.get(1));
+    }
+}
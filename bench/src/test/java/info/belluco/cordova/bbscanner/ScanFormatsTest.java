@@ -0,0 +1,57 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScanFormatsTest {
+
+    @Test
+    public void mapsJsNamesToZxingFormats() {
+        assertEquals(BarcodeFormat.PDF_417, ScanFormats.forName("PDF417"));
+        assertEquals(BarcodeFormat.QR_CODE, ScanFormats.forName("QR_CODE"));
+        assertNull(ScanFormats.forName("PDF_417"));
+        assertNull(ScanFormats.forName(null));
+    }
+
+    @Test
+    public void ignoresUnknownNames() {
+        assertEquals(EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.CODE_128),
+                ScanFormats.forNames(Arrays.asList("EAN_13", "NOT_A_FORMAT", "CODE_128")));
+    }
+
+    @Test
+    public void fallsBackToTheDefaultFormats() {
+        assertSame(ScanFormats.DEFAULT_FORMATS, ScanFormats.forNames(Collections.<String>emptyList()));
+        assertSame(ScanFormats.DEFAULT_FORMATS, ScanFormats.forNames(Arrays.asList("NOT_A_FORMAT")));
+    }
+
+    @Test
+    public void hintsOnlyIncludeTheRequestedFormats() {
+        Map<DecodeHintType, Object> hints = ScanFormats.hints(EnumSet.of(BarcodeFormat.QR_CODE));
+        assertEquals(EnumSet.of(BarcodeFormat.QR_CODE), hints.get(DecodeHintType.POSSIBLE_FORMATS));
+        assertFalse(hints.containsKey(DecodeHintType.ALLOWED_EAN_EXTENSIONS));
+        assertTrue(ScanFormats.hints(EnumSet.of(BarcodeFormat.EAN_13, BarcodeFormat.UPC_EAN_EXTENSION))
+                .containsKey(DecodeHintType.ALLOWED_EAN_EXTENSIONS));
+    }
+
+    @Test
+    public void eanExtensionComesWithTheFormatsItAttachesTo() {
+        assertEquals(EnumSet.of(BarcodeFormat.UPC_EAN_EXTENSION, BarcodeFormat.UPC_A, BarcodeFormat.UPC_E,
+                BarcodeFormat.EAN_8, BarcodeFormat.EAN_13),
+                ScanFormats.forNames(Arrays.asList("UPC_EAN_EXTENSION")));
+        assertEquals(EnumSet.of(BarcodeFormat.UPC_EAN_EXTENSION, BarcodeFormat.EAN_13),
+                ScanFormats.forNames(Arrays.asList("EAN_13", "UPC_EAN_EXTENSION")));
+    }
+}
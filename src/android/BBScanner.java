@@ -1,25 +1,20 @@
 package info.belluco.cordova.bbscanner;
 
 import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
-import android.content.pm.FeatureInfo;
+import android.content.res.Configuration;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Rect;
 import android.hardware.camera2.CameraAccessException;
 import android.net.Uri;
+import android.os.Build;
+import android.util.Base64;
 
 import com.google.zxing.BarcodeFormat;
-import com.google.zxing.ResultPoint;
-import com.journeyapps.barcodescanner.BarcodeCallback;
-import com.journeyapps.barcodescanner.BarcodeResult;
-import com.journeyapps.barcodescanner.BarcodeView;
-import com.journeyapps.barcodescanner.DefaultDecoderFactory;
-import com.journeyapps.barcodescanner.SourceData;
-import com.journeyapps.barcodescanner.camera.CameraInstance;
-import com.journeyapps.barcodescanner.camera.CameraSettings;
-import com.journeyapps.barcodescanner.camera.PreviewCallback;
+import com.google.zxing.Result;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
@@ -31,47 +26,92 @@ import org.json.JSONObject;
 import android.hardware.Camera;
 import android.provider.Settings;
 import androidx.core.app.ActivityCompat;
-import android.util.Base64;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.FrameLayout;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 
 @SuppressWarnings("deprecation")
-public class BBScanner extends CordovaPlugin implements BarcodeCallback {
-
-    private CallbackContext callbackContext;
-    private boolean cameraClosing;
-    private static Boolean flashAvailable;
-    private boolean lightOn = false;
-    private boolean showing = false;
-    private boolean prepared = false;
+public class BBScanner extends CordovaPlugin {
+
+    private CallbackContext permissionCallback;
+    private final CameraState cameraState = new CameraState();
+    private volatile CameraCapabilities capabilities;
+    // Cached until the permission may have changed: on a permission result
+    // and when the app comes back to the foreground
+    private volatile Boolean permissionGranted;
+    private CallbackContext statusCallback;
+    private String lastPushedStatus;
+    private final Object STATUS_LOCK = new Object();
+    // Commands run on the command queue thread, the flags below are also
+    // written from the UI thread
+    private volatile boolean lightOn = false;
+    private volatile boolean showing = false;
+    private volatile boolean prepared = false;
     private int currentCameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
     private String[] permissions = {Manifest.permission.CAMERA};
     //Preview started or paused
-    private boolean previewing = false;
-    private BarcodeView  mBarcodeView;
-    private boolean switchFlashOn = false;
-    private boolean switchFlashOff = false;
-    private boolean cameraPreviewing;
-    private boolean scanning = false;
-    private CallbackContext nextScanCallback;
-    private boolean shouldScanAgain;
+    private volatile boolean previewing = false;
+    private volatile CaptureBackend preview;
+    private volatile String requestedBackend = BarcodeViewBackend.NAME;
+    private volatile CameraControls cameraControls = CameraControls.DEFAULT;
+    // Decode frame size requested by prepare, null for the backend's default
+    private volatile FrameSize requestedFrameSize;
+    private volatile FrameSize preparedFrameSize;
+    private volatile boolean switchFlashOn = false;
+    private volatile boolean switchFlashOff = false;
+    private volatile boolean cameraPreviewing;
+    private volatile boolean shouldScanAgain;
     private boolean denied;
     private boolean authorized;
     private boolean restricted;
     private boolean oneTime = true;
     private boolean keepDenied = false;
     private boolean appPausedWithActivePreview = false;
-    private BarcodeFormat scanType = null;
-    private boolean multipleScan = false;
+    private Set<BarcodeFormat> scanFormats = ScanFormats.DEFAULT_FORMATS;
+    private ScanDecoderFactory decoderFactory;
+    //Scan region relative to the webview, and the same region relative to the decoded frame
+    private ScanRegion requestedScanRegion;
+    private ScanRegion decodeRegion;
+    //Return every code found in a frame as one array
+    private boolean multiBarcode = false;
+    private final ScanMetrics metrics = new ScanMetrics();
+    //Scan state and result delivery, decoding through decodeLoop
+    private final ScanSession session = new ScanSession(metrics);
+    private final CommandQueue commands = new CommandQueue(metrics);
+    private static final long CAMERA_TRANSITION_TIMEOUT = 2500;
+    private static final int DEFAULT_DUPLICATE_CACHE_SIZE = 64;
+    private ScheduledExecutorService batchTimer;
+    private DecodeLoop decodeLoop;
+    private static final double DEFAULT_MAX_DECODE_LOAD = 0.5;
+    //Decode workers set by prepare, and the number used by the current scan
+    private int preparedDecodeWorkers = 1;
+    private long cameraOpenStartedNanos;
+    //UI thread: open the camera once the one being closed reports it is closed
+    private boolean resumeRequested;
     private final Object LOCK = new Object();
+    private final SnapshotEncoder snapshotEncoder = new SnapshotEncoder();
+    private static final int DEFAULT_SNAPSHOT_QUALITY = 85;
+    private static final String SNAPSHOT_DIRECTORY = "bbscanner";
+    private ImageBatch imageBatch;
+    // With warm set, prepare reuses the open camera and its view; they are
+    // only released by destroy or when memory runs low while hidden
+    private volatile boolean warm = false;
+    private volatile int preparedCameraId = -1;
+    private ComponentCallbacks2 memoryCallbacks;
 
     static class BBScannerError {
         private static final int UNEXPECTED_ERROR = 0,
@@ -82,46 +122,120 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 CAMERA_UNAVAILABLE = 5,
                 SCAN_CANCELED = 6,
                 LIGHT_UNAVAILABLE = 7,
-                OPEN_SETTINGS_UNAVAILABLE = 8;
+                OPEN_SETTINGS_UNAVAILABLE = 8,
+                IMAGE_UNREADABLE = 9;
     }
 
     @Override
     public boolean execute(final String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
-        this.callbackContext = callbackContext;
         try {
             if (action.equals("show")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         show(callbackContext);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if(action.equals("scan")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(new Runnable() {
                     public void run() {
+                        scanFormats = getBarcodeFormatsFromOptions(args);
+
                         JSONObject data;
+                        boolean multipleScan;
                         try{
                             data = (JSONObject)args.get(0);
-                            scanType = getBarcodeFormatFromString(data.getString("format"));
+                            multipleScan = data.getBoolean("multipleScan");
                         }catch (JSONException e){
-                            scanType = null;
+                            multipleScan = false;
                         }
 
                         try{
                             data = (JSONObject)args.get(0);
-                            multipleScan = data.getBoolean("multipleScan");
+                            multiBarcode = data.getBoolean("multiBarcode");
                         }catch (JSONException e){
-                            multipleScan = false;
+                            multiBarcode = false;
+                        }
+
+                        // Results repeated within duplicateWindow ms are dropped in multipleScan mode
+                        DuplicateFilter duplicateFilter;
+                        try{
+                            data = (JSONObject)args.get(0);
+                            long duplicateWindow = data.getLong("duplicateWindow");
+                            int duplicateCacheSize = data.optInt("duplicateCacheSize", DEFAULT_DUPLICATE_CACHE_SIZE);
+                            duplicateFilter = duplicateWindow > 0 ? new DuplicateFilter(duplicateWindow, duplicateCacheSize, metrics) : null;
+                        }catch (JSONException e){
+                            duplicateFilter = null;
+                        }
+                        ResultFilter resultFilter = new ResultFilter(scanFormats, multipleScan ? duplicateFilter : null);
+
+                        // multipleScan results are sent as arrays every batchInterval ms or batchSize results
+                        long batchInterval = 0;
+                        int batchSize = 0;
+                        try{
+                            data = (JSONObject)args.get(0);
+                            batchInterval = data.optLong("batchInterval", 0);
+                            batchSize = data.optInt("batchSize", 0);
+                        }catch (JSONException e){
+                        }
+                        ResultBatcher resultBatcher = null;
+                        if (multipleScan && (batchInterval > 0 || batchSize > 0))
+                            resultBatcher = createResultBatcher(batchInterval, batchSize, callbackContext);
+
+                        // At most decodeRate frames/s are decoded; adaptiveDecodeRate also
+                        // slows down so decoding stays under maxDecodeLoad of the time
+                        // With decodeWorkers > 1, that many frames are decoded in parallel
+                        int decodeWorkers;
+                        FrameScheduler frameScheduler;
+                        try{
+                            data = (JSONObject)args.get(0);
+                            decodeWorkers = Math.max(1, data.optInt("decodeWorkers", preparedDecodeWorkers));
+                            double decodeRate = data.optDouble("decodeRate", 0);
+                            boolean adaptive = data.optBoolean("adaptiveDecodeRate", false);
+                            double maxLoad = data.optDouble("maxDecodeLoad", DEFAULT_MAX_DECODE_LOAD);
+                            frameScheduler = new FrameScheduler(decodeRate, adaptive, maxLoad, decodeWorkers, metrics);
+                        }catch (JSONException e){
+                            decodeWorkers = preparedDecodeWorkers;
+                            frameScheduler = new FrameScheduler(0, false, 1, decodeWorkers, metrics);
+                        }
+
+                        // Zoom and metering can change per scan, on the open camera
+                        JSONObject scanOptions = args.optJSONObject(0);
+                        if (scanOptions != null && (scanOptions.has("zoom") || scanOptions.has("meterScanRegion"))) {
+                            cameraControls = readCameraControls(scanOptions, cameraControls);
+                            applyCameraControls();
+                        }
+
+                        // Structured results with the raw bytes as ArrayBuffers
+                        boolean richResults = scanOptions != null && scanOptions.optBoolean("richResults", false);
+
+                        // Frames less sharp than minSharpness, or that changed more
+                        // than maxMotion since the last one, are not decoded
+                        FrameQualityFilter qualityFilter = null;
+                        if (scanOptions != null)
+                            qualityFilter = new FrameQualityFilter(scanOptions.optDouble("minSharpness", 0),
+                                    scanOptions.optDouble("maxMotion", 0), metrics);
+                        session.setQualityFilter(qualityFilter);
+
+                        // After escalateAfter frames without a result, decode with
+                        // TRY_HARDER, then inverted, then rotated, up to maxEscalation
+                        DecodeEscalation escalation = null;
+                        if (scanOptions != null && scanOptions.optInt("escalateAfter", 0) > 0) {
+                            int maxLevel = DecodeEscalation.levelForName(scanOptions.optString("maxEscalation", "rotated"));
+                            escalation = new DecodeEscalation(scanOptions.optInt("escalateAfter"),
+                                    maxLevel < 0 ? DecodeEscalation.ROTATED : maxLevel, metrics);
                         }
+                        session.setEscalation(escalation);
 
+                        session.configure(multipleScan, resultFilter, resultBatcher, frameScheduler, decodeWorkers, richResults);
                         scan(callbackContext);
                     }
                 });
                 return true;
             }
             else if(action.equals("pause")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(new Runnable() {
                     public void run() {
                         pauseScan(callbackContext);
                     }
@@ -129,31 +243,71 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 return true;
             }
             else if(action.equals("resume")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(new Runnable() {
                     public void run() {
                         resumeScan(callbackContext);
                     }
                 });
                 return true;
             }
+            else if(action.equals("setScanRegion")) {
+                commands.submit(new Runnable() {
+                    public void run() {
+                        setScanRegion(args, callbackContext);
+                    }
+                });
+                return true;
+            }
+            else if(action.equals("setZoom")) {
+                commands.submit(new Runnable() {
+                    public void run() {
+                        setZoom(args, callbackContext);
+                    }
+                });
+                return true;
+            }
             else if(action.equals("snap")) {
+                commands.submit(new Runnable() {
+                    public void run() {
+                        snap(getSnapshotOptions(args), callbackContext);
+                    }
+                });
+                return true;
+            }
+            else if(action.equals("decodeImage")) {
                 cordova.getThreadPool().execute(new Runnable() {
                     public void run() {
-                        snap(callbackContext);
+                        decodeImage(args, callbackContext);
                     }
                 });
                 return true;
             }
-            else if(action.equals("stop")) {
+            else if(action.equals("decodeImages")) {
                 cordova.getThreadPool().execute(new Runnable() {
                     public void run() {
-                        stop(callbackContext);
+                        decodeImages(args, callbackContext);
                     }
                 });
                 return true;
             }
+            else if(action.equals("cancelDecodeImages")) {
+                synchronized (LOCK) {
+                    if (imageBatch != null)
+                        imageBatch.cancel();
+                }
+                callbackContext.success();
+                return true;
+            }
+            else if(action.equals("stop")) {
+                commands.submit(action + args, new Runnable() {
+                    public void run() {
+                        stop(callbackContext);
+                    }
+                }, statusReply(callbackContext));
+                return true;
+            }
             else if(action.equals("openSettings")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(new Runnable() {
                     public void run() {
                         openSettings(callbackContext);
                     }
@@ -161,102 +315,138 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 return true;
             }
             else if(action.equals("pausePreview")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         pausePreview(callbackContext);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if(action.equals("useCamera")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         switchCamera(callbackContext, args);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if(action.equals("resumePreview")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         resumePreview(callbackContext);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if(action.equals("hide")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         hide(callbackContext);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if (action.equals("enableLight")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
-                        while (cameraClosing) {
-                            try {
-                                Thread.sleep(10);
-                            } catch (InterruptedException ignore) {
-                            }
-                        }
+                        // Wait for a pending open or close instead of toggling
+                        // the torch of a camera that is changing
+                        awaitCameraSettled();
                         switchFlashOn = true;
                         if (hasFlash()) {
                             if (!hasPermission()) {
-                                requestPermission(33);
+                                requestPermission(33, callbackContext);
                             } else
                                 enableLight(callbackContext);
                         } else {
                             callbackContext.error(BBScannerError.LIGHT_UNAVAILABLE);
                         }
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if (action.equals("disableLight")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         switchFlashOff = true;
                         if (hasFlash()) {
                             if (!hasPermission()) {
-                                requestPermission(33);
+                                requestPermission(33, callbackContext);
                             } else
                                 disableLight(callbackContext);
                         } else {
                             callbackContext.error(BBScannerError.LIGHT_UNAVAILABLE);
                         }
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if (action.equals("prepare")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
-                        cordova.getActivity().runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    currentCameraId = args.getInt(0);
-                                } catch (JSONException e) {
-                                }
-                                prepare(callbackContext);
+                        JSONObject options = args.optJSONObject(0);
+                        if (options != null) {
+                            currentCameraId = options.optInt("camera", currentCameraId);
+                            preparedDecodeWorkers = Math.max(1, options.optInt("decodeWorkers", preparedDecodeWorkers));
+                            warm = options.optBoolean("warm", warm);
+                            requestedBackend = options.optString("captureBackend", requestedBackend);
+                            cameraControls = readCameraControls(options, cameraControls);
+                            if (options.has("resolution"))
+                                requestedFrameSize = readFrameSize(options.opt("resolution"));
+                        } else {
+                            try {
+                                currentCameraId = args.getInt(0);
+                            } catch (JSONException e) {
                             }
-                        });
+                        }
+                        prepare(callbackContext);
                     }
-                });
+                }, statusReply(callbackContext));
                 return true;
             }
             else if (action.equals("destroy")) {
-                cordova.getThreadPool().execute(new Runnable() {
+                commands.submit(action + args, new Runnable() {
                     public void run() {
                         destroy(callbackContext);
                     }
+                }, statusReply(callbackContext));
+                return true;
+            }
+            else if (action.equals("getMetrics")) {
+                cordova.getThreadPool().execute(new Runnable() {
+                    public void run() {
+                        getMetrics(callbackContext);
+                    }
                 });
                 return true;
             }
-            else if (action.equals("getStatus")) {
+            else if (action.equals("resetMetrics")) {
                 cordova.getThreadPool().execute(new Runnable() {
+                    public void run() {
+                        metrics.reset();
+                        getMetrics(callbackContext);
+                    }
+                });
+                return true;
+            }
+            else if (action.equals("subscribeStatus")) {
+                commands.query(new Runnable() {
+                    public void run() {
+                        subscribeStatus(callbackContext);
+                    }
+                });
+                return true;
+            }
+            else if (action.equals("unsubscribeStatus")) {
+                commands.query(new Runnable() {
+                    public void run() {
+                        unsubscribeStatus(callbackContext);
+                    }
+                });
+                return true;
+            }
+            else if (action.equals("getStatus")) {
+                commands.query(new Runnable() {
                     public void run() {
                         getStatus(callbackContext);
                     }
@@ -273,33 +463,75 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     }
 
     @Override
-    public void onPause(boolean multitasking) {
-        if (previewing) {
-            this.appPausedWithActivePreview = true;
-            this.pausePreview(null);
-        }
+    protected void pluginInitialize() {
+        memoryCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_RUNNING_LOW)
+                    releaseIdleCamera();
+            }
+
+            @Override
+            public void onLowMemory() {
+                releaseIdleCamera();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        };
+        cordova.getActivity().registerComponentCallbacks(memoryCallbacks);
     }
 
     @Override
-    public void onResume(boolean multitasking) {
-        if (this.appPausedWithActivePreview) {
-            this.appPausedWithActivePreview = false;
-            this.resumePreview(null);
+    public void onDestroy() {
+        commands.shutdown();
+        if (memoryCallbacks != null)
+            cordova.getActivity().unregisterComponentCallbacks(memoryCallbacks);
+        if (batchTimer != null)
+            batchTimer.shutdownNow();
+        synchronized (LOCK) {
+            if (imageBatch != null)
+                imageBatch.cancel();
         }
     }
 
-    private boolean hasFlash() {
-        if (flashAvailable == null) {
-            flashAvailable = false;
-            final PackageManager packageManager = this.cordova.getActivity().getPackageManager();
-            for (final FeatureInfo feature : packageManager.getSystemAvailableFeatures()) {
-                if (PackageManager.FEATURE_CAMERA_FLASH.equalsIgnoreCase(feature.name)) {
-                    flashAvailable = true;
-                    break;
+    @Override
+    public void onPause(boolean multitasking) {
+        commands.submit(new Runnable() {
+            public void run() {
+                if (previewing) {
+                    appPausedWithActivePreview = true;
+                    pausePreview(null);
                 }
             }
-        }
-        return flashAvailable;
+        });
+    }
+
+    @Override
+    public void onResume(boolean multitasking) {
+        commands.submit(new Runnable() {
+            public void run() {
+                // The permission may have been granted in the settings meanwhile
+                permissionGranted = null;
+                publishStatus();
+                if (appPausedWithActivePreview) {
+                    appPausedWithActivePreview = false;
+                    resumePreview(null);
+                }
+            }
+        });
+    }
+
+    private CameraCapabilities capabilities() {
+        CameraCapabilities probed = capabilities;
+        if (probed == null)
+            capabilities = probed = CameraCapabilities.probe(cordova.getActivity());
+        return probed;
+    }
+
+    private boolean hasFlash() {
+        return capabilities().hasFlash;
     }
 
     private void switchFlash(boolean toggleLight, CallbackContext callbackContext) {
@@ -322,24 +554,22 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             return "0";
     }
 
-    private BarcodeFormat getBarcodeFormatFromString(String format){
-        BarcodeFormat aFormat = null;
-        switch (format){
-            case "QR_CODE": aFormat = BarcodeFormat.QR_CODE; break;
-            case "UPC_E": aFormat = BarcodeFormat.UPC_E; break;
-            case "EAN_13": aFormat = BarcodeFormat.EAN_13; break;
-            case "EAN_8": aFormat = BarcodeFormat.EAN_8; break;
-            case "CODE_39": aFormat = BarcodeFormat.CODE_39; break;
-            case "CODE_93": aFormat = BarcodeFormat.CODE_93; break;
-            case "CODE_128": aFormat = BarcodeFormat.CODE_128; break;
-            case "PDF417": aFormat = BarcodeFormat.PDF_417; break;
-            case "ITF": aFormat = BarcodeFormat.ITF; break;
-            case "DATA_MATRIX": aFormat = BarcodeFormat.DATA_MATRIX; break;
-            case "CODABAR": aFormat = BarcodeFormat.CODABAR; break;
-            case "RSS_14": aFormat = BarcodeFormat.RSS_14; break;
-            case "RSS_EXPANDED": aFormat = BarcodeFormat.RSS_EXPANDED; break;
+    // The format option is either a single format name or an array of names.
+    private Set<BarcodeFormat> getBarcodeFormatsFromOptions(JSONArray args){
+        ArrayList<String> names = new ArrayList<String>();
+        try{
+            JSONObject data = (JSONObject)args.get(0);
+            Object format = data.get("format");
+            if (format instanceof JSONArray) {
+                JSONArray formatList = (JSONArray)format;
+                for (int i = 0; i < formatList.length(); i++)
+                    names.add(formatList.getString(i));
+            }
+            else
+                names.add(data.getString("format"));
+        }catch (JSONException e){
         }
-        return aFormat;
+        return ScanFormats.forNames(names);
     }
 
     private void doswitchFlash(final boolean toggleLight, final CallbackContext callbackContext) throws IOException, CameraAccessException {        //No flash for front facing cameras
@@ -357,8 +587,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (mBarcodeView != null) {
-                    mBarcodeView.setTorch(toggleLight);
+                if (preview != null) {
+                    preview.setTorch(toggleLight);
                     if (toggleLight)
                         lightOn = true;
                     else
@@ -374,15 +604,7 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     }
 
     private boolean canChangeCamera() {
-        int numCameras= Camera.getNumberOfCameras();
-        for(int i=0;i<numCameras;i++){
-            Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(i, info);
-            if(info.CAMERA_FACING_FRONT == info.facing){
-                return true;
-            }
-        }
-        return false;
+        return capabilities().canChangeCamera;
     }
 
     public void switchCamera(CallbackContext callbackContext, JSONArray args) {
@@ -392,30 +614,126 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             cameraId = args.getInt(0);
         } catch (JSONException d) {
             callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+            return;
+        }
+        if (prepared && cameraPreviewing) {
+            if (cameraId == Camera.CameraInfo.CAMERA_FACING_FRONT ? !hasFrontCamera() : !hasCamera()) {
+                callbackContext.error(cameraId == Camera.CameraInfo.CAMERA_FACING_FRONT
+                        ? BBScannerError.FRONT_CAMERA_UNAVAILABLE : BBScannerError.BACK_CAMERA_UNAVAILABLE);
+                return;
+            }
+            currentCameraId = cameraId;
+            if (cameraId != preparedCameraId)
+                reopenCamera();
+            getStatus(callbackContext);
+            return;
         }
         currentCameraId = cameraId;
-        if(scanning) {
-            scanning = false;
+        if(session.isScanning()) {
+            ScanSession.ResultCallback scanCallback = session.stop();
             prepared = false;
             if(cameraPreviewing) {
                 this.cordova.getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        ((ViewGroup) mBarcodeView.getParent()).removeView(mBarcodeView);
+                        removePreviewView();
                         cameraPreviewing = false;
                     }
                 });
             }
             closeCamera();
+            // Open the new camera once the old one is closed
+            try {
+                cameraState.awaitClosed(CAMERA_TRANSITION_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             prepare(callbackContext);
-            scan(this.nextScanCallback);
+            scan(scanCallback);
         }
         else
             prepare(callbackContext);
     }
 
-    public void onRequestPermissionResult(int requestCode, String[] permissions,
-                                          int[] grantResults) throws JSONException {
+    // Releases a warm camera that is neither shown nor scanning, the next
+    // prepare opens it again
+    private void releaseIdleCamera() {
+        commands.submit(new Runnable() {
+            public void run() {
+                if (!warm || !prepared || showing || session.isScanning())
+                    return;
+                prepared = false;
+                previewing = false;
+                lightOn = false;
+                appPausedWithActivePreview = false;
+                if (cameraPreviewing) {
+                    cordova.getActivity().runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            removePreviewView();
+                            cameraPreviewing = false;
+                        }
+                    });
+                }
+                closeCamera();
+                publishStatus();
+            }
+        });
+    }
+
+    // Opens currentCameraId in the existing view. The view, the decoder and
+    // the scan session stay in place; the decode loop keeps asking for frames
+    // and gets them from the new camera once its preview starts.
+    private void reopenCamera() {
+        final int cameraId = currentCameraId;
+        cameraState.startClosing();
+        cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                pauseCamera();
+                preview.setCameraId(cameraId);
+                preparedCameraId = cameraId;
+                lightOn = false;
+                if (previewing) {
+                    cameraOpenStartedNanos = System.nanoTime();
+                    resumeCamera();
+                }
+            }
+        });
+        awaitCameraSettled();
+    }
+
+    private void awaitCameraSettled() {
+        try {
+            cameraState.awaitSettled(CAMERA_TRANSITION_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Runnable statusReply(final CallbackContext callbackContext) {
+        return new Runnable() {
+            public void run() {
+                getStatus(callbackContext);
+            }
+        };
+    }
+
+    public void onRequestPermissionResult(final int requestCode, final String[] permissions,
+                                          final int[] grantResults) throws JSONException {
+        commands.submit(new Runnable() {
+            public void run() {
+                CallbackContext callbackContext = permissionCallback;
+                permissionCallback = null;
+                permissionGranted = null;
+                handlePermissionResult(requestCode, permissions, grantResults, callbackContext);
+                publishStatus();
+            }
+        });
+    }
+
+    private void handlePermissionResult(int requestCode, String[] permissions, int[] grantResults,
+                                        CallbackContext callbackContext) {
         oneTime = false;
         if (requestCode == 33) {
             // for each permission check if the user granted/denied them
@@ -442,13 +760,13 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                     denied = false;
                     switch (requestCode) {
                         case 33:
-                            if(switchFlashOn && !scanning && !switchFlashOff)
+                            if(switchFlashOn && !session.isScanning() && !switchFlashOff)
                                 switchFlash(true, callbackContext);
-                            else if(switchFlashOff && !scanning)
+                            else if(switchFlashOff && !session.isScanning())
                                 switchFlash(false, callbackContext);
                             else {
-                                setupCamera(callbackContext);
-                                if(!scanning)
+                                setupCamera();
+                                if(!session.isScanning())
                                     getStatus(callbackContext);
                             }
                             break;
@@ -464,147 +782,249 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     }
 
     public boolean hasPermission() {
+        Boolean granted = permissionGranted;
+        if (granted != null)
+            return granted;
+        granted = true;
         for(String p : permissions)
         {
             if(!PermissionHelper.hasPermission(this, p))
             {
-                return false;
+                granted = false;
+                break;
             }
         }
-        return true;
+        permissionGranted = granted;
+        return granted;
     }
 
-    private void requestPermission(int requestCode) {
+    // The result goes to callbackContext, not to the callback of whatever
+    // command came in meanwhile
+    private void requestPermission(int requestCode, CallbackContext callbackContext) {
+        permissionCallback = callbackContext;
         PermissionHelper.requestPermissions(this, requestCode, permissions);
     }
 
     private void closeCamera() {
-        cameraClosing = true;
+        cameraState.startClosing();
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if (mBarcodeView != null) {
-                    mBarcodeView.pause();
-                }
-
-                cameraClosing = false;
+                pauseCamera();
             }
         });
     }
 
+    // Must run on the UI thread. The camera is CLOSED once the backend
+    // reports cameraClosed; pause does not wait for it.
+    private void pauseCamera() {
+        resumeRequested = false;
+        if (preview == null) {
+            cameraState.set(CameraState.State.CLOSED);
+            return;
+        }
+        cameraState.startClosing();
+        preview.pause();
+    }
+
+    // Must run on the UI thread; the camera is open once the preview starts.
+    // A camera that is still closing is opened from cameraClosed, so the
+    // state goes from CLOSING straight to OPENING. Does nothing if the
+    // camera is already open or opening.
+    private void resumeCamera() {
+        if (cameraState.get() == CameraState.State.CLOSING) {
+            resumeRequested = true;
+            return;
+        }
+        if (cameraState.startOpening())
+            preview.resume();
+    }
+
+    // Must run on the UI thread.
+    private void removePreviewView() {
+        View view = preview.getView();
+        if (view.getParent() != null)
+            ((ViewGroup) view.getParent()).removeView(view);
+    }
+
+    private CaptureBackend createBackend() {
+        if (Camera2Backend.NAME.equals(backendName()))
+            return new Camera2Backend(cordova.getActivity());
+        return new BarcodeViewBackend(cordova.getActivity());
+    }
+
+    // camera2 needs API 21; "auto" picks it unless the device only emulates it
+    private String backendName() {
+        if (Camera2Backend.NAME.equals(requestedBackend) && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+            return Camera2Backend.NAME;
+        if ("auto".equals(requestedBackend) && Camera2Backend.isRecommended(cordova.getActivity()))
+            return Camera2Backend.NAME;
+        return BarcodeViewBackend.NAME;
+    }
+
     private void makeOpaque() {
         this.cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 // webView.getView().setBackgroundColor(Color.WHITE);
-                if ( mBarcodeView != null )
-                    mBarcodeView.setVisibility(View.INVISIBLE);
+                if ( preview != null )
+                    preview.getView().setVisibility(View.INVISIBLE);
             }
         });
         showing = false;
     }
 
     private boolean hasCamera() {
-        if (this.cordova.getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA)){
-            return true;
-        } else {
-            return false;
-        }
+        return capabilities().hasBackCamera;
     }
 
     private boolean hasFrontCamera() {
-        if (this.cordova.getActivity().getPackageManager().hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT)){
-            return true;
-        } else {
-            return false;
-        }
+        return capabilities().hasFrontCamera;
     }
-    private void setupCamera(CallbackContext callbackContext) {
+    private void setupCamera() {
         cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 // Create our Preview view and set it as the content of our activity.
-                mBarcodeView = new BarcodeView(cordova.getActivity());
-
-                //Configure the decoder
-                ArrayList<BarcodeFormat> formatList = new ArrayList<BarcodeFormat>();
-                formatList.add(BarcodeFormat.QR_CODE);
-                formatList.add(BarcodeFormat.DATA_MATRIX);
-                formatList.add(BarcodeFormat.UPC_A);
-                formatList.add(BarcodeFormat.UPC_E);
-                formatList.add(BarcodeFormat.EAN_8);
-                formatList.add(BarcodeFormat.EAN_13);
-                formatList.add(BarcodeFormat.CODE_39);
-                formatList.add(BarcodeFormat.CODE_93);
-                formatList.add(BarcodeFormat.CODE_128);
-                formatList.add(BarcodeFormat.CODABAR);
-                formatList.add(BarcodeFormat.ITF);
-                formatList.add(BarcodeFormat.RSS_14);
-                formatList.add(BarcodeFormat.PDF_417);
-                formatList.add(BarcodeFormat.RSS_EXPANDED);
-                mBarcodeView.setDecoderFactory( new DefaultDecoderFactory(formatList) );
+                preview = createBackend();
+
+                //Configure the decoder for the formats of the current scan. The scan
+                //region is mapped onto the frame once the preview has started.
+                decodeRegion = null;
+                decoderFactory = new ScanDecoderFactory(scanFormats, decodeRegion, multiBarcode);
+                decodeLoop = new DecodeLoop(preview.getFrameSource(), metrics, new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        cordova.getActivity().runOnUiThread(command);
+                    }
+                }, session);
+                decodeLoop.setDecoderFactory(decoderFactory);
+                session.setDecodeLoop(decodeLoop);
+                preview.setListener(new CaptureBackend.Listener() {
+                    @Override
+                    public void previewStarted() {
+                        cameraState.set(CameraState.State.OPEN);
+                        if (cameraOpenStartedNanos != 0) {
+                            metrics.cameraOpenTime.record(System.nanoTime() - cameraOpenStartedNanos);
+                            cameraOpenStartedNanos = 0;
+                        }
+                        Rect framing = preview.getPreviewFramingRect();
+                        if (framing != null)
+                            decodeLoop.setCrop(framing.left, framing.top, framing.right, framing.bottom);
+                        updateDecodeRegion();
+                        publishStatus();
+                    }
+
+                    @Override
+                    public void cameraError(Exception error) {
+                        cameraState.set(CameraState.State.CLOSED);
+                        commands.invalidate();
+                        publishStatus();
+                    }
+
+                    @Override
+                    public void cameraClosed() {
+                        // Late close of a camera that already failed
+                        if (cameraState.get() != CameraState.State.CLOSING)
+                            return;
+                        if (resumeRequested) {
+                            resumeRequested = false;
+                            cameraState.set(CameraState.State.OPENING);
+                            preview.resume();
+                        } else {
+                            cameraState.set(CameraState.State.CLOSED);
+                        }
+                    }
+                });
 
                 //Configure the camera (front/back)
-                CameraSettings settings = new CameraSettings();
-                mBarcodeView.setCameraSettings(settings);
-                settings.setRequestedCameraId(getCurrentCameraId());
+                preparedCameraId = getCurrentCameraId();
+                preview.setCameraId(getCurrentCameraId());
+                preview.setControls(cameraControls);
+                preparedFrameSize = requestedFrameSize;
+                preview.setTargetFrameSize(requestedFrameSize);
 
                 FrameLayout.LayoutParams cameraPreviewParams = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.WRAP_CONTENT, FrameLayout.LayoutParams.WRAP_CONTENT);
-                ((ViewGroup) webView.getView().getParent()).addView(mBarcodeView, cameraPreviewParams);
+                ((ViewGroup) webView.getView().getParent()).addView(preview.getView(), cameraPreviewParams);
 
                 cameraPreviewing = true;
                 webView.getView().bringToFront();
 
-                mBarcodeView.resume();
+                cameraOpenStartedNanos = System.nanoTime();
+                resumeCamera();
             }
         });
         prepared = true;
         previewing = true;
         if(shouldScanAgain)
-            scan(callbackContext);
+            scan(session.getCallback());
 
     }
 
-    @Override
-    public void barcodeResult(BarcodeResult barcodeResult) {
-        if (!this.scanning) {
-            return;
-        }
+    // Sends the results of one scan() call to its callback.
+    private final class ScanCallback implements ScanSession.ResultCallback {
 
-        if (this.nextScanCallback == null) {
-            return;
+        private final CallbackContext callbackContext;
+
+        ScanCallback(CallbackContext callbackContext) {
+            this.callbackContext = callbackContext;
         }
 
-        if ( this.scanType != null ){
-            if ( barcodeResult.getBarcodeFormat() != this.scanType ){
-                // Log.d("BBScan",  "====== NOOOO");
-                return;
-            }
+        @Override
+        public void sendResult(Object payload, boolean keepCallback) {
+            PluginResult result;
+            if (payload instanceof BinaryPayload)
+                result = binaryResult(((BinaryPayload) payload).json, ((BinaryPayload) payload).buffers);
+            else if (payload instanceof JSONArray)
+                result = new PluginResult(PluginResult.Status.OK, (JSONArray) payload);
+            else
+                result = new PluginResult(PluginResult.Status.OK, (String) payload);
+            result.setKeepCallback(keepCallback);
+            sendScanResult(callbackContext, result);
+            // A single scan ends with its result
+            if (!keepCallback)
+                publishStatus();
         }
 
-        if(barcodeResult.getText() != null) {
-            // Log.d("BBScan",  "====== Ooook: "+barcodeResult.getText());
-            PluginResult result = new PluginResult(PluginResult.Status.OK, barcodeResult.getText());
-            CallbackContext callback = this.nextScanCallback;
+        @Override
+        public void cancel() {
+            callbackContext.error(BBScannerError.SCAN_CANCELED);
+        }
+    }
 
-            if (this.multipleScan) {
-                result.setKeepCallback(true);
-            } else {
-                scanning = false;
-                mBarcodeView.stopDecoding();
-                this.nextScanCallback = null;
-                this.scanType = null;
-            }
+    private void sendScanResult(CallbackContext callback, PluginResult result) {
+        long start = System.nanoTime();
+        callback.sendPluginResult(result);
+        metrics.bridgeSendTime.record(System.nanoTime() - start);
+    }
 
-            callback.sendPluginResult(result);
-        }
-        else {
-            scan(this.nextScanCallback);
-        }
+    // Rich results go as one multipart message, the JSON followed by each
+    // buffer as an ArrayBuffer, which the callback receives as arguments
+    private static PluginResult binaryResult(Object json, List<byte[]> buffers) {
+        PluginResult jsonResult = json instanceof JSONArray
+                ? new PluginResult(PluginResult.Status.OK, (JSONArray) json)
+                : new PluginResult(PluginResult.Status.OK, (JSONObject) json);
+        if (buffers.isEmpty())
+            return jsonResult;
+        List<PluginResult> parts = new ArrayList<PluginResult>(buffers.size() + 1);
+        parts.add(jsonResult);
+        for (byte[] buffer : buffers)
+            parts.add(new PluginResult(PluginResult.Status.OK, buffer));
+        return new PluginResult(PluginResult.Status.OK, parts);
     }
 
-    @Override
-    public void possibleResultPoints(List<ResultPoint> list) {
+    private ResultBatcher createResultBatcher(long batchInterval, int batchSize, final CallbackContext callback) {
+        if (batchTimer == null)
+            batchTimer = Executors.newSingleThreadScheduledExecutor();
+        return new ResultBatcher(batchInterval, batchSize, batchTimer, new ResultBatcher.Sink() {
+            @Override
+            public void flush(JSONArray batch, List<byte[]> buffers) {
+                PluginResult result = binaryResult(batch, buffers);
+                result.setKeepCallback(true);
+                sendScanResult(callback, result);
+                metrics.batchesSent.incrementAndGet();
+            }
+        });
     }
 
     // ---- BEGIN EXTERNAL API ----
@@ -613,11 +1033,11 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             if(currentCameraId == Camera.CameraInfo.CAMERA_FACING_BACK) {
                 if (hasCamera()) {
                     if (!hasPermission()) {
-                        requestPermission(33);
+                        requestPermission(33, callbackContext);
                     }
                     else {
-                        setupCamera(callbackContext);
-                        if (!scanning)
+                        setupCamera();
+                        if (!session.isScanning())
                             getStatus(callbackContext);
                     }
                 }
@@ -628,11 +1048,11 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             else if(currentCameraId == Camera.CameraInfo.CAMERA_FACING_FRONT) {
                 if (hasFrontCamera()) {
                     if (!hasPermission()) {
-                        requestPermission(33);
+                        requestPermission(33, callbackContext);
                     }
                     else {
-                        setupCamera(callbackContext);
-                        if (!scanning)
+                        setupCamera();
+                        if (!session.isScanning())
                             getStatus(callbackContext);
                     }
                 }
@@ -644,19 +1064,30 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 callbackContext.error(BBScannerError.CAMERA_UNAVAILABLE);
             }
         }
+        else if (warm && cameraPreviewing && preparedCameraId == currentCameraId
+                && preview.getName().equals(backendName())
+                && (requestedFrameSize == null ? preparedFrameSize == null : requestedFrameSize.equals(preparedFrameSize))) {
+            // Keep the view and the camera, only resume a paused preview
+            metrics.warmPrepares.incrementAndGet();
+            applyCameraControls();
+            if (!previewing)
+                resumePreview(callbackContext);
+            else
+                getStatus(callbackContext);
+        }
         else {
             prepared = false;
             this.cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    mBarcodeView.pause();
+                    pauseCamera();
                 }
             });
             if(cameraPreviewing) {
                 this.cordova.getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        ((ViewGroup) mBarcodeView.getParent()).removeView(mBarcodeView);
+                        removePreviewView();
                         cameraPreviewing = false;
                     }
                 });
@@ -664,20 +1095,24 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 previewing = true;
                 lightOn = false;
             }
-            setupCamera(callbackContext);
+            setupCamera();
             getStatus(callbackContext);
         }
     }
 
-    private void scan(final CallbackContext callbackContext) {
-        scanning = true;
+    private void scan(CallbackContext callbackContext) {
+        scan(new ScanCallback(callbackContext));
+    }
+
+    private void scan(ScanSession.ResultCallback callback) {
+        session.start(callback);
         if (!prepared) {
             shouldScanAgain = true;
             if (hasCamera()) {
                 if (!hasPermission()) {
-                    requestPermission(33);
+                    requestPermission(33, callback instanceof ScanCallback ? ((ScanCallback) callback).callbackContext : null);
                 } else {
-                    setupCamera(callbackContext);
+                    setupCamera();
                 }
             }
         } else {
@@ -685,8 +1120,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 this.cordova.getActivity().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        if(mBarcodeView != null) {
-                            mBarcodeView.resume();
+                        if(preview != null) {
+                            resumeCamera();
                             previewing = true;
                             if(switchFlashOn)
                                 lightOn = true;
@@ -695,37 +1130,147 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
                 });
             }
             shouldScanAgain = false;
-            this.nextScanCallback = callbackContext;
-            final BarcodeCallback b = this;
             this.cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
                     webView.getView().setBackgroundColor(Color.argb(1, 0, 0, 0));
                     showing = true;
-                    mBarcodeView.setVisibility(View.VISIBLE);
-                    if (mBarcodeView != null) {
-                        // mBarcodeView.decodeSingle(b);
-                        mBarcodeView.decodeContinuous(b);
+                    if (preview != null) {
+                        preview.getView().setVisibility(View.VISIBLE);
+                        applyDecoderConfig();
+                        session.startDecoding();
                     }
                 }
             });
         }
     }
 
+    // Swaps the decoder of the decode loop when the requested formats or the
+    // scan region changed. Must be called on the UI thread.
+    private void applyDecoderConfig() {
+        if (decoderFactory != null && decoderFactory.isConfiguredFor(scanFormats, decodeRegion, multiBarcode))
+            return;
+        decoderFactory = new ScanDecoderFactory(scanFormats, decodeRegion, multiBarcode);
+        decodeLoop.setDecoderFactory(decoderFactory);
+    }
+
+    // Maps the requested scan region onto the frame the decoder receives, which
+    // is the preview cropped to the backend's framing rect. Must be called
+    // on the UI thread.
+    private void updateDecodeRegion() {
+        if (preview == null)
+            return;
+        decodeRegion = null;
+        Rect framing = preview.getFramingRect();
+        View web = webView.getView();
+        if (requestedScanRegion != null && framing != null && web.getWidth() > 0 && web.getHeight() > 0) {
+            float offsetX = preview.getView().getLeft() - web.getLeft();
+            float offsetY = preview.getView().getTop() - web.getTop();
+            decodeRegion = requestedScanRegion.relativeTo(
+                    (offsetX + framing.left) / web.getWidth(),
+                    (offsetY + framing.top) / web.getHeight(),
+                    (offsetX + framing.right) / web.getWidth(),
+                    (offsetY + framing.bottom) / web.getHeight());
+        }
+        applyDecoderConfig();
+        preview.setMeteringRegion(cameraControls.meterScanRegion ? decodeRegion : null);
+    }
+
+    // A policy name or {width, height}; anything else selects the default.
+    private static FrameSize readFrameSize(Object resolution) {
+        if (resolution instanceof String)
+            return FrameSize.forPolicy((String) resolution);
+        if (resolution instanceof JSONObject) {
+            int width = ((JSONObject) resolution).optInt("width", 0);
+            int height = ((JSONObject) resolution).optInt("height", 0);
+            if (width > 0 && height > 0)
+                return new FrameSize(width, height);
+        }
+        return null;
+    }
+
+    // Options not given keep their current value.
+    private static CameraControls readCameraControls(JSONObject options, CameraControls current) {
+        return new CameraControls(
+                options.optString("focusMode", current.focusMode),
+                options.optBoolean("barcodeSceneMode", current.barcodeScene),
+                options.optBoolean("meterScanRegion", current.meterScanRegion),
+                (float) options.optDouble("zoom", current.zoom));
+    }
+
+    private void applyCameraControls() {
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (preview == null)
+                    return;
+                preview.setControls(cameraControls);
+                preview.setMeteringRegion(cameraControls.meterScanRegion ? decodeRegion : null);
+            }
+        });
+    }
+
+    // Zooms the open camera, or the next one opened; clamped to its maximum.
+    private void setZoom(JSONArray args, CallbackContext callbackContext) {
+        double zoom = args.optDouble(0, Double.NaN);
+        if (Double.isNaN(zoom)) {
+            callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+            return;
+        }
+        cameraControls = cameraControls.withZoom((float) zoom);
+        applyCameraControls();
+        getStatus(callbackContext);
+    }
+
+    // The region is given either normalized to the webview or in CSS pixels.
+    private void setScanRegion(final JSONArray args, final CallbackContext callbackContext) {
+        this.cordova.getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                JSONObject region = args.optJSONObject(0);
+                if (region == null) {
+                    requestedScanRegion = null;
+                } else {
+                    try {
+                        float left = (float) region.getDouble("left");
+                        float top = (float) region.getDouble("top");
+                        float width = (float) region.getDouble("width");
+                        float height = (float) region.getDouble("height");
+                        if ("px".equals(region.optString("units", "normalized"))) {
+                            View web = webView.getView();
+                            if (web.getWidth() == 0 || web.getHeight() == 0) {
+                                callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+                                return;
+                            }
+                            float density = cordova.getActivity().getResources().getDisplayMetrics().density;
+                            left = left * density / web.getWidth();
+                            width = width * density / web.getWidth();
+                            top = top * density / web.getHeight();
+                            height = height * density / web.getHeight();
+                        }
+                        requestedScanRegion = new ScanRegion(left, top, left + width, top + height);
+                    } catch (JSONException e) {
+                        callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+                        return;
+                    }
+                }
+                updateDecodeRegion();
+                getStatus(callbackContext);
+            }
+        });
+    }
+
     private void stop(final CallbackContext callbackContext) {
+        ScanSession.ResultCallback scanCallback = session.stop();
         this.cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
                 makeOpaque();
-                scanning = false;
-                if (mBarcodeView != null) {
-                    mBarcodeView.stopDecoding();
-                }
+                publishStatus();
             }
         });
-        if(this.nextScanCallback != null)
-            this.nextScanCallback.error(BBScannerError.SCAN_CANCELED);
-        this.nextScanCallback = null;
+        if(scanCallback != null)
+            scanCallback.cancel();
     }
 
     private void show(final CallbackContext callbackContext) {
@@ -734,7 +1279,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
             public void run() {
                 webView.getView().setBackgroundColor(Color.argb(1, 0, 0, 0));
                 showing = true;
-                mBarcodeView.setVisibility(View.VISIBLE);
+                if (preview != null)
+                    preview.getView().setVisibility(View.VISIBLE);
                 getStatus(callbackContext);
             }
         });
@@ -749,8 +1295,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         this.cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if(mBarcodeView != null) {
-                    mBarcodeView.pause();
+                if(preview != null) {
+                    pauseCamera();
                     previewing = false;
                     if(lightOn)
                         lightOn = false;
@@ -767,8 +1313,8 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         this.cordova.getActivity().runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                if(mBarcodeView != null) {
-                    mBarcodeView.resume();
+                if(preview != null) {
+                    resumeCamera();
                     previewing = true;
                     if(switchFlashOn)
                         lightOn = true;
@@ -828,7 +1374,12 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     }
 
     private void getStatus(CallbackContext callbackContext) {
+        JSONObject status = status();
+        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, status));
+        publishStatus(status);
+    }
 
+    private JSONObject status() {
         if(oneTime) {
             boolean authorizationStatus = hasPermission();
 
@@ -851,47 +1402,99 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
         if(currentCameraId == Camera.CameraInfo.CAMERA_FACING_FRONT)
             canEnableLight = false;
 
-        HashMap status = new HashMap();
-        status.put("authorized",boolToNumberString(authorized));
-        status.put("denied",boolToNumberString(denied));
-        status.put("restricted",boolToNumberString(restricted));
-        status.put("prepared",boolToNumberString(prepared));
-        status.put("scanning",boolToNumberString(scanning));
-        status.put("previewing",boolToNumberString(previewing));
-        status.put("showing",boolToNumberString(showing));
-        status.put("lightEnabled",boolToNumberString(lightOn));
-        status.put("canOpenSettings",boolToNumberString(canOpenSettings));
-        status.put("canEnableLight",boolToNumberString(canEnableLight));
-        status.put("canChangeCamera",boolToNumberString(canChangeCamera()));
-        status.put("currentCamera",Integer.toString(getCurrentCameraId()));
-
-        JSONObject obj = new JSONObject(status);
-        PluginResult result = new PluginResult(PluginResult.Status.OK, obj);
-        callbackContext.sendPluginResult(result);
+        JSONObject status = new JSONObject();
+        try {
+            status.put("authorized",boolToNumberString(authorized));
+            status.put("denied",boolToNumberString(denied));
+            status.put("restricted",boolToNumberString(restricted));
+            status.put("prepared",boolToNumberString(prepared));
+            status.put("scanning",boolToNumberString(session.isScanning()));
+            status.put("previewing",boolToNumberString(previewing));
+            status.put("showing",boolToNumberString(showing));
+            status.put("lightEnabled",boolToNumberString(lightOn));
+            status.put("canOpenSettings",boolToNumberString(canOpenSettings));
+            status.put("canEnableLight",boolToNumberString(canEnableLight));
+            status.put("canChangeCamera",boolToNumberString(canChangeCamera()));
+            status.put("currentCamera",Integer.toString(getCurrentCameraId()));
+            status.put("captureBackend", preview != null ? preview.getName() : "");
+            status.put("zoom", Float.toString(cameraControls.zoom));
+            FrameSize frameSize = preview != null ? preview.getFrameSize() : null;
+            status.put("frameSize", frameSize != null ? frameSize.toString() : "");
+        } catch (JSONException e) {
+            // Keys are constants
+        }
+        return status;
+    }
+
+    private void subscribeStatus(CallbackContext callbackContext) {
+        synchronized (STATUS_LOCK) {
+            if (statusCallback != null)
+                endStatusSubscription();
+            statusCallback = callbackContext;
+            lastPushedStatus = null;
+        }
+        publishStatus();
+    }
+
+    private void unsubscribeStatus(CallbackContext callbackContext) {
+        synchronized (STATUS_LOCK) {
+            if (statusCallback != null)
+                endStatusSubscription();
+        }
+        callbackContext.success();
+    }
+
+    private void endStatusSubscription() {
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(false);
+        statusCallback.sendPluginResult(result);
+        statusCallback = null;
+    }
+
+    // Pushes the status to the subscriber if any field changed since the
+    // last push
+    private void publishStatus() {
+        synchronized (STATUS_LOCK) {
+            if (statusCallback == null)
+                return;
+        }
+        publishStatus(status());
+    }
+
+    private void publishStatus(JSONObject status) {
+        synchronized (STATUS_LOCK) {
+            if (statusCallback == null)
+                return;
+            String serialized = status.toString();
+            if (serialized.equals(lastPushedStatus))
+                return;
+            lastPushedStatus = serialized;
+            PluginResult result = new PluginResult(PluginResult.Status.OK, status);
+            result.setKeepCallback(true);
+            statusCallback.sendPluginResult(result);
+        }
+    }
+
+    private void getMetrics(CallbackContext callbackContext) {
+        try {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, metrics.toJSON()));
+        } catch (JSONException e) {
+            callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+        }
     }
 
     private void destroy(CallbackContext callbackContext) {
         prepared = false;
         makeOpaque();
         previewing = false;
-        if(scanning) {
-            this.cordova.getActivity().runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    scanning = false;
-                    if (mBarcodeView != null) {
-                        mBarcodeView.stopDecoding();
-                    }
-                }
-            });
-            this.nextScanCallback = null;
-        }
+        if(session.isScanning())
+            session.stop();
 
         if(cameraPreviewing) {
             this.cordova.getActivity().runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    ((ViewGroup) mBarcodeView.getParent()).removeView(mBarcodeView);
+                    removePreviewView();
                     cameraPreviewing = false;
                 }
             });
@@ -906,65 +1509,276 @@ public class BBScanner extends CordovaPlugin implements BarcodeCallback {
     }
 
     private void pauseScan(CallbackContext callbackContext) {
-        if (!scanning) {
+        if (!session.pause()) {
             callbackContext.success();
             return;
         }
-        scanning = false;
-        this.cordova.getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mBarcodeView.stopDecoding();
-                PluginResult result = new PluginResult(PluginResult.Status.OK);
-                callbackContext.sendPluginResult(result);
-            }
-        });
+        PluginResult result = new PluginResult(PluginResult.Status.OK);
+        callbackContext.sendPluginResult(result);
     }
 
     private void resumeScan(CallbackContext callbackContext) {
-        if (scanning) {
+        if (!session.resume()) {
             callbackContext.success();
             return;
         }
-        final BarcodeCallback barcodeCallback = this;
-        scanning = true;
-        cordova.getActivity().runOnUiThread(new Runnable() {
+        PluginResult result = new PluginResult(PluginResult.Status.OK);
+        callbackContext.sendPluginResult(result);
+    }
+
+    // Options: format ('png', 'jpeg' or 'webp'), quality (0-100), maxDimension
+    // in pixels and output ('base64' or 'file').
+    private SnapshotEncoder.Options getSnapshotOptions(JSONArray args) {
+        SnapshotEncoder.Options options = new SnapshotEncoder.Options();
+        JSONObject data = args.optJSONObject(0);
+        if (data == null)
+            return options;
+        String format = data.optString("format", "png");
+        if (format.equals("jpeg") || format.equals("jpg")) {
+            options.format = Bitmap.CompressFormat.JPEG;
+            options.quality = DEFAULT_SNAPSHOT_QUALITY;
+        } else if (format.equals("webp")) {
+            options.format = Bitmap.CompressFormat.WEBP;
+            options.quality = DEFAULT_SNAPSHOT_QUALITY;
+        }
+        options.quality = Math.min(100, Math.max(0, data.optInt("quality", options.quality)));
+        options.maxDimension = data.optInt("maxDimension", 0);
+        options.toFile = "file".equals(data.optString("output", "base64"));
+        return options;
+    }
+
+    private void snap(final SnapshotEncoder.Options options, final CallbackContext callbackContext) {
+        if (preview == null) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR));
+            return;
+        }
+        preview.requestSnapshot(new CaptureBackend.SnapshotCallback() {
             @Override
-            public void run() {
-                mBarcodeView.decodeContinuous(barcodeCallback);
-                PluginResult result = new PluginResult(PluginResult.Status.OK);
-                callbackContext.sendPluginResult(result);
+            public void onSnapshot(final CaptureBackend.SnapshotSource source) {
+                // Encode off the camera and UI threads
+                cordova.getThreadPool().execute(new Runnable() {
+                    public void run() {
+                        synchronized (LOCK) {
+                            Bitmap image = source.toBitmap(snapshotEncoder, options.maxDimension);
+                            try {
+                                String snapshot;
+                                if (options.toFile) {
+                                    File dir = new File(cordova.getActivity().getCacheDir(), SNAPSHOT_DIRECTORY);
+                                    snapshot = Uri.fromFile(snapshotEncoder.toFile(image, options, dir)).toString();
+                                } else {
+                                    snapshot = snapshotEncoder.toBase64(image, options);
+                                }
+                                PluginResult result = new PluginResult(PluginResult.Status.OK, snapshot);
+                                callbackContext.sendPluginResult(result);
+                            } catch (IOException e) {
+                                PluginResult result = new PluginResult(PluginResult.Status.ERROR);
+                                callbackContext.sendPluginResult(result);
+                            } finally {
+                                snapshotEncoder.release(image);
+                            }
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onSnapshotError(Exception e) {
+                synchronized (LOCK) {
+                    PluginResult result = new PluginResult(PluginResult.Status.ERROR);
+                    callbackContext.sendPluginResult(result);
+                }
             }
         });
     }
 
-    private void snap(CallbackContext callbackContext) {
-        Rect rect = mBarcodeView.getPreviewFramingRect();
+    // Decodes the codes of a still image, given as options.path (a file path,
+    // file:// or content:// URI), options.data (base64) or as an ArrayBuffer
+    // second argument. Uses the formats of the live scan unless options.format
+    // is set, and never touches the camera or the preview.
+    private void decodeImage(JSONArray args, CallbackContext callbackContext) {
+        JSONObject options = args.optJSONObject(0);
+        if (options == null)
+            options = new JSONObject();
+        Set<BarcodeFormat> formats = options.has("format") ? getBarcodeFormatsFromOptions(args) : scanFormats;
+        boolean multiple = options.optBoolean("multiBarcode", false);
+        int maxDimension = options.optInt("maxDimension", ImageDecoder.DEFAULT_MAX_DIMENSION);
+
+        try {
+            ImageDecoder.Input input = getImageInput(args, options);
+            if (input == null) {
+                callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+                return;
+            }
+            JSONArray codes = new JSONArray();
+            for (Result code : ImageDecoder.decode(input, maxDimension, formats, multiple)) {
+                if (code.getText() != null)
+                    codes.put(ResultJSON.toJSON(code));
+            }
+            callbackContext.success(codes);
+        } catch (IOException e) {
+            callbackContext.error(BBScannerError.IMAGE_UNREADABLE);
+        } catch (IllegalArgumentException e) {
+            // Invalid base64
+            callbackContext.error(BBScannerError.IMAGE_UNREADABLE);
+        } catch (JSONException e) {
+            callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+        }
+    }
+
+    private ImageDecoder.Input getImageInput(JSONArray args, JSONObject options) throws JSONException {
+        // The bridge sends ArrayBuffers as base64, see CordovaArgs.getArrayBuffer
+        if (args.length() > 1 && !args.isNull(1))
+            return bytesInput(Base64.decode(args.getString(1), Base64.DEFAULT));
+        if (options.has("data"))
+            return bytesInput(Base64.decode(options.getString("data"), Base64.DEFAULT));
+        if (!options.has("path"))
+            return null;
+
+        return imageInput(options.getString("path"));
+    }
 
-        CameraInstance camera = mBarcodeView.getCameraInstance();
-        camera.requestPreview(new PreviewCallback() {
+    private ImageDecoder.Input imageInput(final String path) {
+        if (path.startsWith("content://")) {
+            return new ImageDecoder.Input() {
+                @Override
+                public InputStream open() throws IOException {
+                    InputStream stream = cordova.getActivity().getContentResolver().openInputStream(Uri.parse(path));
+                    if (stream == null)
+                        throw new IOException("Cannot open " + path);
+                    return stream;
+                }
+            };
+        }
+        final String file = path.startsWith("file://") ? Uri.parse(path).getPath() : path;
+        return new ImageDecoder.Input() {
             @Override
-            public void onPreview(SourceData sourceData) {
-                synchronized (LOCK) {
-                    sourceData.setCropRect(rect);
-                    Bitmap image = sourceData.getBitmap();
-
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    image.compress(Bitmap.CompressFormat.PNG, 100, baos);
-                    byte[] b = baos.toByteArray();
-                    String imageEncoded = Base64.encodeToString(b, Base64.DEFAULT);
-                    PluginResult result = new PluginResult(PluginResult.Status.OK, imageEncoded);
-                    callbackContext.sendPluginResult(result);
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    private ImageDecoder.Input bytesInput(final byte[] bytes) {
+        return new ImageDecoder.Input() {
+            @Override
+            public InputStream open() {
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+
+    // Decodes options.paths, or the files of options.directory, on a worker
+    // per CPU. Every image is reported as soon as it is done and the batch
+    // ends with a "done" event; a new batch cancels the running one.
+    private void decodeImages(JSONArray args, final CallbackContext callbackContext) {
+        JSONObject options = args.optJSONObject(0);
+        if (options == null)
+            options = new JSONObject();
+        Set<BarcodeFormat> formats = options.has("format") ? getBarcodeFormatsFromOptions(args) : scanFormats;
+        boolean multiple = options.optBoolean("multiBarcode", false);
+        int maxDimension = options.optInt("maxDimension", ImageDecoder.DEFAULT_MAX_DIMENSION);
+
+        List<String> paths = new ArrayList<String>();
+        JSONArray list = options.optJSONArray("paths");
+        if (list != null) {
+            for (int i = 0; i < list.length(); i++)
+                paths.add(list.optString(i));
+        } else if (options.has("directory")) {
+            String directory = options.optString("directory");
+            File dir = new File(directory.startsWith("file://") ? Uri.parse(directory).getPath() : directory);
+            File[] files = dir.listFiles();
+            if (files == null) {
+                callbackContext.error(BBScannerError.IMAGE_UNREADABLE);
+                return;
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile())
+                    paths.add(file.getPath());
+            }
+        } else {
+            callbackContext.error(BBScannerError.UNEXPECTED_ERROR);
+            return;
+        }
+
+        if (paths.isEmpty()) {
+            callbackContext.success(batchEvent("done", 0, 0));
+            return;
+        }
+
+        final int total = paths.size();
+        ImageBatch batch = new ImageBatch(paths, new ImageBatch.Inputs() {
+            @Override
+            public ImageDecoder.Input open(String path) {
+                return imageInput(path);
+            }
+        }, maxDimension, formats, multiple, new ImageBatch.Listener() {
+            @Override
+            public void onImage(int index, String path, Result[] codes, int completed) {
+                JSONObject event = batchEvent("image", completed, total);
+                JSONArray results = new JSONArray();
+                try {
+                    for (Result code : codes) {
+                        if (code.getText() != null)
+                            results.put(ResultJSON.toJSON(code));
+                    }
+                    event.put("index", index);
+                    event.put("path", path);
+                    event.put("codes", results);
+                } catch (JSONException e) {
+                    // Keys are constants
                 }
+                sendBatchEvent(event, true);
             }
 
             @Override
-            public void onPreviewError(Exception e) {
-                synchronized (LOCK) {
-                    PluginResult result = new PluginResult(PluginResult.Status.ERROR);
-                    callbackContext.sendPluginResult(result);
+            public void onImageError(int index, String path, int completed) {
+                JSONObject event = batchEvent("error", completed, total);
+                try {
+                    event.put("index", index);
+                    event.put("path", path);
+                    event.put("code", BBScannerError.IMAGE_UNREADABLE);
+                } catch (JSONException e) {
+                    // Keys are constants
                 }
+                sendBatchEvent(event, true);
+            }
+
+            @Override
+            public void onFinished(int completed, boolean cancelled) {
+                JSONObject event = batchEvent("done", completed, total);
+                try {
+                    event.put("cancelled", cancelled);
+                } catch (JSONException e) {
+                    // Keys are constants
+                }
+                sendBatchEvent(event, false);
+            }
+
+            private void sendBatchEvent(JSONObject event, boolean keepCallback) {
+                PluginResult result = new PluginResult(PluginResult.Status.OK, event);
+                result.setKeepCallback(keepCallback);
+                callbackContext.sendPluginResult(result);
             }
         });
+
+        synchronized (LOCK) {
+            if (imageBatch != null)
+                imageBatch.cancel();
+            imageBatch = batch;
+        }
+        batch.start(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static JSONObject batchEvent(String type, int completed, int total) {
+        JSONObject event = new JSONObject();
+        try {
+            event.put("type", type);
+            event.put("completed", completed);
+            event.put("total", total);
+        } catch (JSONException e) {
+            // Keys are constants
+        }
+        return event;
     }
 }
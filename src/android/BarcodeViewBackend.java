@@ -0,0 +1,257 @@
+package info.belluco.cordova.bbscanner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.hardware.Camera;
+import android.view.View;
+
+import com.journeyapps.barcodescanner.BarcodeView;
+import com.journeyapps.barcodescanner.CameraPreview;
+import com.journeyapps.barcodescanner.Size;
+import com.journeyapps.barcodescanner.SourceData;
+import com.journeyapps.barcodescanner.camera.CameraInstance;
+import com.journeyapps.barcodescanner.camera.CameraParametersCallback;
+import com.journeyapps.barcodescanner.camera.CameraSettings;
+import com.journeyapps.barcodescanner.camera.FitCenterStrategy;
+import com.journeyapps.barcodescanner.camera.PreviewCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The android.hardware.Camera backend: a zxing-android-embedded
+ * BarcodeView, used only for its camera and preview since decoding is done
+ * by the DecodeLoop. Frames are NV21 preview buffers.
+ */
+final class BarcodeViewBackend implements CaptureBackend {
+
+    static final String NAME = "camera1";
+
+    private final BarcodeView barcodeView;
+    private final CameraSettings settings = new CameraSettings();
+    private final CameraFrameSource frameSource;
+    private CameraControls controls = CameraControls.DEFAULT;
+    private ScanRegion meteringRegion;
+    private volatile FrameSize targetFrameSize;
+    private volatile FrameSize frameSize;
+
+    BarcodeViewBackend(Context context) {
+        barcodeView = new BarcodeView(context);
+        barcodeView.setCameraSettings(settings);
+        barcodeView.setPreviewScalingStrategy(new FrameSizeStrategy());
+        frameSource = new CameraFrameSource(barcodeView);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public View getView() {
+        return barcodeView;
+    }
+
+    @Override
+    public FrameSource getFrameSource() {
+        return frameSource;
+    }
+
+    @Override
+    public void setListener(final Listener listener) {
+        barcodeView.addStateListener(new CameraPreview.StateListener() {
+            @Override
+            public void previewSized() {
+            }
+
+            @Override
+            public void previewStarted() {
+                applyParameters();
+                listener.previewStarted();
+            }
+
+            @Override
+            public void previewStopped() {
+            }
+
+            @Override
+            public void cameraError(Exception error) {
+                listener.cameraError(error);
+            }
+
+            @Override
+            public void cameraClosed() {
+                listener.cameraClosed();
+            }
+        });
+    }
+
+    @Override
+    public void setCameraId(int cameraId) {
+        settings.setRequestedCameraId(cameraId);
+    }
+
+    @Override
+    public void setTargetFrameSize(FrameSize target) {
+        targetFrameSize = target;
+    }
+
+    @Override
+    public FrameSize getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public void resume() {
+        barcodeView.resume();
+    }
+
+    @Override
+    public void pause() {
+        barcodeView.pause();
+        frameSize = null;
+    }
+
+    @Override
+    public void setTorch(boolean on) {
+        barcodeView.setTorch(on);
+    }
+
+    @Override
+    public void setControls(CameraControls controls) {
+        this.controls = controls;
+        // CameraSettings are read by the camera when it opens. Without a
+        // focus mode the defaults stay: autofocus retriggered every 2s.
+        if (CameraControls.FOCUS_CONTINUOUS.equals(controls.focusMode))
+            settings.setFocusMode(CameraSettings.FocusMode.CONTINUOUS);
+        else if (CameraControls.FOCUS_MACRO.equals(controls.focusMode))
+            settings.setFocusMode(CameraSettings.FocusMode.MACRO);
+        else
+            settings.setFocusMode(CameraSettings.FocusMode.AUTO);
+        settings.setBarcodeSceneModeEnabled(controls.barcodeScene);
+        applyParameters();
+    }
+
+    @Override
+    public void setMeteringRegion(ScanRegion region) {
+        meteringRegion = region;
+        applyParameters();
+    }
+
+    // Zoom and focus/metering areas of the open camera, changed on the
+    // camera thread
+    private void applyParameters() {
+        CameraInstance camera = barcodeView.getCameraInstance();
+        if (camera == null || !camera.isOpen())
+            return;
+        final float zoom = controls.zoom;
+        final ScanRegion region = meteringRegion;
+        final Rect framing = barcodeView.getPreviewFramingRect();
+        final int rotation = camera.getCameraRotation();
+        camera.changeCameraParameters(new CameraParametersCallback() {
+            @Override
+            public Camera.Parameters changeCameraParameters(Camera.Parameters parameters) {
+                if (parameters.isZoomSupported())
+                    parameters.setZoom(zoomIndex(parameters.getZoomRatios(), zoom));
+                List<Camera.Area> areas = null;
+                if (region != null && framing != null)
+                    areas = meteringAreas(region, framing, parameters.getPreviewSize(), rotation);
+                if (parameters.getMaxNumFocusAreas() > 0)
+                    parameters.setFocusAreas(areas);
+                if (parameters.getMaxNumMeteringAreas() > 0)
+                    parameters.setMeteringAreas(areas);
+                return parameters;
+            }
+        });
+    }
+
+    // The largest zoom step not above the ratio; the ratios are in 1/100
+    private static int zoomIndex(List<Integer> ratios, float zoom) {
+        int index = 0;
+        for (int i = 0; i < ratios.size(); i++) {
+            if (ratios.get(i) <= zoom * 100)
+                index = i;
+        }
+        return index;
+    }
+
+    // Areas are in sensor orientation, -1000 to 1000 across the zoomed
+    // field of view, while the framing rect is in the upright frame
+    private static List<Camera.Area> meteringAreas(ScanRegion region, Rect framing, Camera.Size size, int rotation) {
+        boolean rotated = rotation % 180 != 0;
+        float width = rotated ? size.height : size.width;
+        float height = rotated ? size.width : size.height;
+        ScanRegion sensor = region.within(framing.left / width, framing.top / height,
+                framing.right / width, framing.bottom / height).unrotate(rotation);
+        if (sensor.isEmpty())
+            return null;
+        Rect area = new Rect(
+                Math.round(sensor.left * 2000) - 1000,
+                Math.round(sensor.top * 2000) - 1000,
+                Math.round(sensor.right * 2000) - 1000,
+                Math.round(sensor.bottom * 2000) - 1000);
+        if (area.isEmpty())
+            return null;
+        return Collections.singletonList(new Camera.Area(area, 1000));
+    }
+
+    @Override
+    public Rect getFramingRect() {
+        return barcodeView.getFramingRect();
+    }
+
+    @Override
+    public Rect getPreviewFramingRect() {
+        return barcodeView.getPreviewFramingRect();
+    }
+
+    @Override
+    public void requestSnapshot(final SnapshotCallback callback) {
+        final Rect rect = barcodeView.getPreviewFramingRect();
+        CameraInstance camera = barcodeView.getCameraInstance();
+        if (camera == null) {
+            callback.onSnapshotError(new IllegalStateException("Camera is closed"));
+            return;
+        }
+        camera.requestPreview(new PreviewCallback() {
+            @Override
+            public void onPreview(final SourceData sourceData) {
+                sourceData.setCropRect(rect);
+                callback.onSnapshot(new SnapshotSource() {
+                    @Override
+                    public Bitmap toBitmap(SnapshotEncoder encoder, int maxDimension) {
+                        return encoder.toBitmap(sourceData, maxDimension);
+                    }
+                });
+            }
+
+            @Override
+            public void onPreviewError(Exception e) {
+                callback.onSnapshotError(e);
+            }
+        });
+    }
+
+    // Scales the preview like BarcodeView's default, but picks the preview
+    // size by the target frame size rather than by the size of the view.
+    // Called on the camera thread while the camera is configured.
+    private final class FrameSizeStrategy extends FitCenterStrategy {
+        @Override
+        public Size getBestPreviewSize(List<Size> sizes, Size desired) {
+            FrameSize target = targetFrameSize;
+            Size best;
+            if (target == null || sizes.isEmpty()) {
+                best = super.getBestPreviewSize(sizes, desired);
+            } else {
+                List<FrameSize> frameSizes = new ArrayList<FrameSize>(sizes.size());
+                for (Size size : sizes)
+                    frameSizes.add(new FrameSize(size.width, size.height));
+                best = sizes.get(target.choose(frameSizes));
+            }
+            frameSize = best != null ? new FrameSize(best.width, best.height) : null;
+            return best;
+        }
+    }
+}
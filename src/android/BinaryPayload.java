@@ -0,0 +1,20 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.List;
+
+/**
+ * A rich scan result, or an array of them, with the binary data they refer
+ * to. The buffers are sent as ArrayBuffers after the JSON, in the order the
+ * results are in; a result flags each of its binary fields with true.
+ */
+final class BinaryPayload {
+
+    /** A JSONObject or JSONArray. */
+    final Object json;
+    final List<byte[]> buffers;
+
+    BinaryPayload(Object json, List<byte[]> buffers) {
+        this.json = json;
+        this.buffers = buffers;
+    }
+}
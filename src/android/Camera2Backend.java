@@ -0,0 +1,734 @@
+package info.belluco.cordova.bbscanner;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.MeteringRectangle;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Size;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+import android.view.WindowManager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The camera2 backend. The preview is drawn into a TextureView, scaled to
+ * fill it, and frames come from an ImageReader in YUV_420_888. Only the Y
+ * plane of an image is copied, in one bulk copy that keeps its row stride,
+ * and only while the decode loop is waiting for a frame; nothing is
+ * repacked to NV21. Requires API 21.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class Camera2Backend implements CaptureBackend, FrameSource {
+
+    static final String NAME = "camera2";
+
+    /** Frames are at most this size by default, which is plenty for decoding. */
+    private static final FrameSize DEFAULT_FRAME_SIZE = FrameSize.DENSE;
+
+    private final Context context;
+    private final TextureView textureView;
+    private final CameraManager manager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicReference<Callback> pendingFrame = new AtomicReference<Callback>();
+
+    // UI thread
+    private Listener listener;
+    private int cameraId = Camera.CameraInfo.CAMERA_FACING_BACK;
+    private FrameSize targetFrameSize = DEFAULT_FRAME_SIZE;
+    private volatile boolean torch;
+    private volatile CameraControls controls = CameraControls.DEFAULT;
+    // Metering region relative to the unrotated frame
+    private volatile ScanRegion sensorRegion;
+    private volatile boolean resumed;
+    private boolean cameraRequested;
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    // The camera being opened or open, null once its close was requested
+    private DeviceCallback openDevice;
+
+    // Camera thread
+    private Handler sessionHandler;
+    private CameraDevice device;
+    private CameraCaptureSession captureSession;
+    private CaptureRequest.Builder request;
+    private ImageReader reader;
+    private Surface previewSurface;
+    private int[] focusModes;
+    private boolean hasBarcodeScene;
+    private Rect activeArray;
+    private float maxZoom;
+    private boolean hasFocusRegions;
+    private boolean hasExposureRegions;
+    private MeteringRectangle[] defaultFocusRegions;
+    private MeteringRectangle[] defaultExposureRegions;
+    private final byte[][] frameBuffers = new byte[2][];
+    private final PreviewFrame[] frames = new PreviewFrame[2];
+    private int nextFrameBuffer;
+
+    private volatile Size frameSize;
+    private volatile int frameRotation;
+
+    Camera2Backend(Context context) {
+        this.context = context;
+        this.manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        this.textureView = new TextureView(context);
+        textureView.setSurfaceTextureListener(new TextureView.SurfaceTextureListener() {
+            @Override
+            public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+                if (resumed && !cameraRequested)
+                    openCamera();
+            }
+
+            @Override
+            public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+                applyTransform();
+            }
+
+            @Override
+            public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+                return true;
+            }
+
+            @Override
+            public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+            }
+        });
+    }
+
+    /**
+     * Whether camera2 is worth using: available, and not implemented on top
+     * of the old camera API as on LEGACY devices.
+     */
+    static boolean isRecommended(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)
+            return false;
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String id = findCamera(manager, Camera.CameraInfo.CAMERA_FACING_BACK);
+            if (id == null)
+                return false;
+            Integer level = manager.getCameraCharacteristics(id).get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+            return level != null && level != CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY;
+        } catch (CameraAccessException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public View getView() {
+        return textureView;
+    }
+
+    @Override
+    public FrameSource getFrameSource() {
+        return this;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setCameraId(int cameraId) {
+        this.cameraId = cameraId;
+    }
+
+    @Override
+    public void setTargetFrameSize(FrameSize target) {
+        targetFrameSize = target != null ? target : DEFAULT_FRAME_SIZE;
+    }
+
+    @Override
+    public FrameSize getFrameSize() {
+        Size size = frameSize;
+        return size != null ? new FrameSize(size.getWidth(), size.getHeight()) : null;
+    }
+
+    @Override
+    public void resume() {
+        if (resumed)
+            return;
+        resumed = true;
+        cameraThread = new HandlerThread("BBScanner camera2");
+        cameraThread.start();
+        cameraHandler = new Handler(cameraThread.getLooper());
+        if (textureView.isAvailable())
+            openCamera();
+    }
+
+    // The camera thread quits once the device reports it is closed, then
+    // the listener is told on the UI thread
+    @Override
+    public void pause() {
+        if (!resumed)
+            return;
+        resumed = false;
+        cameraRequested = false;
+        HandlerThread thread = cameraThread;
+        DeviceCallback device = openDevice;
+        openDevice = null;
+        if (device != null)
+            device.closeRequested(thread);
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeCamera();
+            }
+        });
+        if (device == null)
+            closeFinished(thread);
+        cameraThread = null;
+        cameraHandler = null;
+        frameSize = null;
+    }
+
+    // Any thread. Pending work on the camera thread still runs.
+    private void closeFinished(HandlerThread thread) {
+        thread.quitSafely();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null)
+                    listener.cameraClosed();
+            }
+        });
+    }
+
+    @Override
+    public void setTorch(boolean on) {
+        torch = on;
+        postUpdate(false);
+    }
+
+    @Override
+    public void setControls(CameraControls controls) {
+        this.controls = controls;
+        postUpdate(false);
+    }
+
+    @Override
+    public void setMeteringRegion(ScanRegion region) {
+        Size size = frameSize;
+        Rect framing = getPreviewFramingRect();
+        ScanRegion sensor = null;
+        if (region != null && size != null && framing != null) {
+            boolean rotated = frameRotation % 180 != 0;
+            float width = rotated ? size.getHeight() : size.getWidth();
+            float height = rotated ? size.getWidth() : size.getHeight();
+            sensor = region.within(framing.left / width, framing.top / height,
+                    framing.right / width, framing.bottom / height).unrotate(frameRotation);
+            if (sensor.isEmpty())
+                sensor = null;
+        }
+        sensorRegion = sensor;
+        postUpdate(true);
+    }
+
+    // UI thread. Updates the repeating request of an open camera, and with
+    // refocus set runs a focus scan in the auto and macro focus modes.
+    private void postUpdate(final boolean refocus) {
+        if (cameraHandler == null)
+            return;
+        cameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (captureSession == null || request == null)
+                    return;
+                applyControls(request);
+                try {
+                    captureSession.setRepeatingRequest(request.build(), null, sessionHandler);
+                    if (refocus)
+                        triggerFocus();
+                } catch (CameraAccessException e) {
+                    // The camera is going away
+                } catch (IllegalStateException e) {
+                    // Session closed meanwhile
+                }
+            }
+        });
+    }
+
+    @Override
+    public Rect getFramingRect() {
+        if (frameSize == null || textureView.getWidth() == 0 || textureView.getHeight() == 0)
+            return null;
+        return new Rect(0, 0, textureView.getWidth(), textureView.getHeight());
+    }
+
+    // The preview fills the view, so the frame is cropped to the view's
+    // aspect ratio around its center.
+    @Override
+    public Rect getPreviewFramingRect() {
+        Size size = frameSize;
+        int viewWidth = textureView.getWidth();
+        int viewHeight = textureView.getHeight();
+        if (size == null || viewWidth == 0 || viewHeight == 0)
+            return null;
+        boolean rotated = frameRotation % 180 != 0;
+        int width = rotated ? size.getHeight() : size.getWidth();
+        int height = rotated ? size.getWidth() : size.getHeight();
+        float scale = Math.max((float) viewWidth / width, (float) viewHeight / height);
+        int visibleWidth = Math.min(width, Math.round(viewWidth / scale));
+        int visibleHeight = Math.min(height, Math.round(viewHeight / scale));
+        int left = (width - visibleWidth) / 2;
+        int top = (height - visibleHeight) / 2;
+        return new Rect(left, top, left + visibleWidth, top + visibleHeight);
+    }
+
+    @Override
+    public void requestSnapshot(final SnapshotCallback callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap image = frameSize != null && textureView.isAvailable() ? textureView.getBitmap() : null;
+                if (image == null) {
+                    callback.onSnapshotError(new IllegalStateException("Camera is closed"));
+                    return;
+                }
+                callback.onSnapshot(new SnapshotSource() {
+                    @Override
+                    public Bitmap toBitmap(SnapshotEncoder encoder, int maxDimension) {
+                        return encoder.scale(image, maxDimension);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void requestFrame(Callback callback) {
+        pendingFrame.set(callback);
+    }
+
+    // UI thread
+    private void openCamera() {
+        cameraRequested = true;
+        try {
+            String id = findCamera(manager, cameraId);
+            if (id == null)
+                throw new IllegalStateException("No camera facing " + cameraId);
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(id);
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            final Size size = chooseFrameSize(map.getOutputSizes(ImageFormat.YUV_420_888), targetFrameSize);
+            Integer sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+            Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+            frameRotation = frameRotation(sensorOrientation != null ? sensorOrientation : 90,
+                    facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT);
+            final int[] availableFocusModes = characteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+            final boolean barcodeScene = contains(characteristics.get(CameraCharacteristics.CONTROL_AVAILABLE_SCENE_MODES),
+                    CaptureRequest.CONTROL_SCENE_MODE_BARCODE);
+            final Rect array = characteristics.get(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            Float digitalZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+            final float availableZoom = digitalZoom != null ? digitalZoom : 1f;
+            Integer focusRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AF);
+            Integer exposureRegions = characteristics.get(CameraCharacteristics.CONTROL_MAX_REGIONS_AE);
+            final boolean meterFocus = focusRegions != null && focusRegions > 0;
+            final boolean meterExposure = exposureRegions != null && exposureRegions > 0;
+            final Handler handler = cameraHandler;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    sessionHandler = handler;
+                    focusModes = availableFocusModes;
+                    hasBarcodeScene = barcodeScene;
+                    activeArray = array;
+                    maxZoom = availableZoom;
+                    hasFocusRegions = meterFocus;
+                    hasExposureRegions = meterExposure;
+                    reader = ImageReader.newInstance(size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, 2);
+                    reader.setOnImageAvailableListener(onImageAvailable, handler);
+                    frameSize = size;
+                }
+            });
+            openDevice = new DeviceCallback();
+            manager.openCamera(id, openDevice, cameraHandler);
+        } catch (CameraAccessException e) {
+            openFailed(e);
+        } catch (SecurityException e) {
+            openFailed(e);
+        } catch (IllegalStateException e) {
+            openFailed(e);
+        }
+    }
+
+    // UI thread. There is no camera to wait for when closing.
+    private void openFailed(Exception error) {
+        openDevice = null;
+        fail(error);
+    }
+
+    private final class DeviceCallback extends CameraDevice.StateCallback {
+        private boolean closed;
+        private HandlerThread closingThread;
+
+        // UI thread, from pause
+        synchronized void closeRequested(HandlerThread thread) {
+            if (closed)
+                closeFinished(thread);
+            else
+                closingThread = thread;
+        }
+
+        @Override
+        public void onOpened(CameraDevice camera) {
+            if (!resumed) {
+                camera.close();
+                return;
+            }
+            device = camera;
+            startSession();
+        }
+
+        @Override
+        public void onDisconnected(CameraDevice camera) {
+            camera.close();
+            if (device == camera) {
+                device = null;
+                fail(new IllegalStateException("Camera disconnected"));
+            }
+        }
+
+        @Override
+        public void onError(CameraDevice camera, int error) {
+            camera.close();
+            if (device == camera) {
+                device = null;
+                fail(new IllegalStateException("Camera error " + error));
+            }
+        }
+
+        @Override
+        public synchronized void onClosed(CameraDevice camera) {
+            closed = true;
+            if (closingThread != null)
+                closeFinished(closingThread);
+        }
+    }
+
+    // Camera thread
+    private void startSession() {
+        SurfaceTexture texture = textureView.getSurfaceTexture();
+        Size size = frameSize;
+        if (texture == null || size == null || reader == null) {
+            fail(new IllegalStateException("Preview is not available"));
+            return;
+        }
+        texture.setDefaultBufferSize(size.getWidth(), size.getHeight());
+        previewSurface = new Surface(texture);
+        try {
+            device.createCaptureSession(Arrays.asList(previewSurface, reader.getSurface()),
+                    new CameraCaptureSession.StateCallback() {
+                        @Override
+                        public void onConfigured(CameraCaptureSession session) {
+                            if (device == null) {
+                                session.close();
+                                return;
+                            }
+                            captureSession = session;
+                            startPreview();
+                        }
+
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            fail(new IllegalStateException("Cannot configure the camera"));
+                        }
+                    }, sessionHandler);
+        } catch (CameraAccessException e) {
+            fail(e);
+        }
+    }
+
+    // Camera thread
+    private void startPreview() {
+        try {
+            request = device.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            request.addTarget(previewSurface);
+            request.addTarget(reader.getSurface());
+            defaultFocusRegions = request.get(CaptureRequest.CONTROL_AF_REGIONS);
+            defaultExposureRegions = request.get(CaptureRequest.CONTROL_AE_REGIONS);
+            applyControls(request);
+            captureSession.setRepeatingRequest(request.build(), null, sessionHandler);
+            triggerFocus();
+        } catch (CameraAccessException e) {
+            fail(e);
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                applyTransform();
+                if (listener != null)
+                    listener.previewStarted();
+            }
+        });
+    }
+
+    // Camera thread
+    private void applyControls(CaptureRequest.Builder builder) {
+        CameraControls current = controls;
+        int focusMode = CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE;
+        if (CameraControls.FOCUS_AUTO.equals(current.focusMode))
+            focusMode = CaptureRequest.CONTROL_AF_MODE_AUTO;
+        else if (CameraControls.FOCUS_MACRO.equals(current.focusMode))
+            focusMode = CaptureRequest.CONTROL_AF_MODE_MACRO;
+        if (contains(focusModes, focusMode))
+            builder.set(CaptureRequest.CONTROL_AF_MODE, focusMode);
+        if (current.barcodeScene && hasBarcodeScene) {
+            builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_USE_SCENE_MODE);
+            builder.set(CaptureRequest.CONTROL_SCENE_MODE, CaptureRequest.CONTROL_SCENE_MODE_BARCODE);
+        } else {
+            builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+        }
+        Rect crop = null;
+        if (activeArray != null) {
+            crop = cropRegion(activeArray, Math.min(current.zoom, maxZoom));
+            builder.set(CaptureRequest.SCALER_CROP_REGION, crop);
+        }
+        MeteringRectangle[] regions = crop != null ? meteringRegions(crop) : null;
+        if (hasFocusRegions)
+            builder.set(CaptureRequest.CONTROL_AF_REGIONS, regions != null ? regions : defaultFocusRegions);
+        if (hasExposureRegions)
+            builder.set(CaptureRequest.CONTROL_AE_REGIONS, regions != null ? regions : defaultExposureRegions);
+        builder.set(CaptureRequest.FLASH_MODE,
+                torch ? CaptureRequest.FLASH_MODE_TORCH : CaptureRequest.FLASH_MODE_OFF);
+    }
+
+    // Camera thread. Continuous modes refocus on their own, the others
+    // focus once per trigger.
+    private void triggerFocus() throws CameraAccessException {
+        Integer focusMode = request.get(CaptureRequest.CONTROL_AF_MODE);
+        if (focusMode == null || (focusMode != CaptureRequest.CONTROL_AF_MODE_AUTO
+                && focusMode != CaptureRequest.CONTROL_AF_MODE_MACRO))
+            return;
+        request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+        captureSession.capture(request.build(), null, sessionHandler);
+        request.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+    }
+
+    // Camera thread. The frame shows the middle of the crop region at the
+    // frame's aspect ratio; the region is mapped onto that part of it.
+    private MeteringRectangle[] meteringRegions(Rect crop) {
+        ScanRegion region = sensorRegion;
+        Size size = frameSize;
+        if (region == null || size == null)
+            return null;
+        float aspect = (float) size.getWidth() / size.getHeight();
+        float width = crop.width();
+        float height = crop.height();
+        if (width / height > aspect)
+            width = height * aspect;
+        else
+            height = width / aspect;
+        float left = crop.left + (crop.width() - width) / 2;
+        float top = crop.top + (crop.height() - height) / 2;
+        Rect rect = new Rect(
+                Math.round(left + region.left * width),
+                Math.round(top + region.top * height),
+                Math.round(left + region.right * width),
+                Math.round(top + region.bottom * height));
+        if (rect.isEmpty())
+            return null;
+        return new MeteringRectangle[]{new MeteringRectangle(rect, MeteringRectangle.METERING_WEIGHT_MAX)};
+    }
+
+    // Digital zoom crops the middle of the sensor
+    private static Rect cropRegion(Rect activeArray, float zoom) {
+        int width = Math.round(activeArray.width() / zoom);
+        int height = Math.round(activeArray.height() / zoom);
+        int left = (activeArray.width() - width) / 2;
+        int top = (activeArray.height() - height) / 2;
+        return new Rect(left, top, left + width, top + height);
+    }
+
+    // Camera thread
+    private void closeCamera() {
+        pendingFrame.set(null);
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        request = null;
+        // A camera that is still opening is closed by DeviceCallback.onOpened
+        if (device != null) {
+            device.close();
+            device = null;
+        }
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+    }
+
+    private final ImageReader.OnImageAvailableListener onImageAvailable = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            Image image = imageReader.acquireLatestImage();
+            if (image == null)
+                return;
+            try {
+                Callback callback = pendingFrame.getAndSet(null);
+                if (callback == null)
+                    return;
+                // The Y plane has a pixel stride of 1; rows may be padded
+                Image.Plane luminance = image.getPlanes()[0];
+                ByteBuffer buffer = luminance.getBuffer();
+                int size = buffer.remaining();
+                // Alternate frames so one still being read by the decode loop
+                // is not overwritten by the next one
+                int index = nextFrameBuffer;
+                nextFrameBuffer ^= 1;
+                byte[] data = frameBuffers[index];
+                if (data == null || data.length < size)
+                    data = frameBuffers[index] = new byte[size];
+                buffer.get(data, 0, size);
+                PreviewFrame frame = frames[index];
+                if (frame == null || frame.data != data || frame.dataWidth != image.getWidth()
+                        || frame.dataHeight != image.getHeight() || frame.rowStride != luminance.getRowStride()
+                        || frame.rotation != frameRotation) {
+                    frame = frames[index] = new PreviewFrame(data, image.getWidth(), image.getHeight(),
+                            luminance.getRowStride(), frameRotation, null);
+                } else {
+                    frame.received();
+                }
+                callback.onFrame(frame);
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    private void fail(final Exception error) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (listener != null)
+                    listener.cameraError(error);
+            }
+        });
+    }
+
+    // UI thread. The camera draws the preview upright for the device's
+    // natural orientation, stretched to the view; this undoes the stretch,
+    // scales it to fill the view and rotates it for the current orientation.
+    private void applyTransform() {
+        Size size = frameSize;
+        int viewWidth = textureView.getWidth();
+        int viewHeight = textureView.getHeight();
+        if (size == null || viewWidth == 0 || viewHeight == 0)
+            return;
+        int displayRotation = displayRotation();
+        float centerX = viewWidth / 2f;
+        float centerY = viewHeight / 2f;
+        Matrix matrix = new Matrix();
+        if (displayRotation == Surface.ROTATION_90 || displayRotation == Surface.ROTATION_270) {
+            RectF viewRect = new RectF(0, 0, viewWidth, viewHeight);
+            RectF bufferRect = new RectF(0, 0, size.getHeight(), size.getWidth());
+            bufferRect.offset(centerX - bufferRect.centerX(), centerY - bufferRect.centerY());
+            matrix.setRectToRect(viewRect, bufferRect, Matrix.ScaleToFit.FILL);
+            float scale = Math.max((float) viewHeight / size.getHeight(), (float) viewWidth / size.getWidth());
+            matrix.postScale(scale, scale, centerX, centerY);
+            matrix.postRotate(90 * (displayRotation - 2), centerX, centerY);
+        } else {
+            boolean rotated = frameRotation % 180 != 0;
+            int width = rotated ? size.getHeight() : size.getWidth();
+            int height = rotated ? size.getWidth() : size.getHeight();
+            float scale = Math.max((float) viewWidth / width, (float) viewHeight / height);
+            matrix.setScale(width * scale / viewWidth, height * scale / viewHeight, centerX, centerY);
+            if (displayRotation == Surface.ROTATION_180)
+                matrix.postRotate(180, centerX, centerY);
+        }
+        textureView.setTransform(matrix);
+    }
+
+    private int displayRotation() {
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        return windowManager.getDefaultDisplay().getRotation();
+    }
+
+    // Same convention as zxing-android-embedded's CameraManager, so both
+    // backends hand the decoder frames rotated the same way.
+    private int frameRotation(int sensorOrientation, boolean front) {
+        int degrees;
+        switch (displayRotation()) {
+            case Surface.ROTATION_90:
+                degrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                degrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                degrees = 270;
+                break;
+            default:
+                degrees = 0;
+                break;
+        }
+        if (front)
+            return (360 - (sensorOrientation + degrees) % 360) % 360;
+        return (sensorOrientation - degrees + 360) % 360;
+    }
+
+    private static Size chooseFrameSize(Size[] sizes, FrameSize target) {
+        List<FrameSize> frameSizes = new ArrayList<FrameSize>(sizes.length);
+        for (Size size : sizes)
+            frameSizes.add(new FrameSize(size.getWidth(), size.getHeight()));
+        return sizes[target.choose(frameSizes)];
+    }
+
+    private static String findCamera(CameraManager manager, int cameraId) throws CameraAccessException {
+        int facing = cameraId == Camera.CameraInfo.CAMERA_FACING_FRONT
+                ? CameraCharacteristics.LENS_FACING_FRONT : CameraCharacteristics.LENS_FACING_BACK;
+        for (String id : manager.getCameraIdList()) {
+            Integer lensFacing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (lensFacing != null && lensFacing == facing)
+                return id;
+        }
+        return null;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values == null)
+            return false;
+        for (int v : values) {
+            if (v == value)
+                return true;
+        }
+        return false;
+    }
+}
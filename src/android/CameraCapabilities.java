@@ -0,0 +1,46 @@
+package info.belluco.cordova.bbscanner;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.Camera;
+
+/**
+ * What the device's cameras can do. It does not change while the app runs,
+ * so it is probed once and cached; only the camera permission, which the
+ * user can change, is checked again.
+ */
+final class CameraCapabilities {
+
+    final boolean hasBackCamera;
+    final boolean hasFrontCamera;
+    final boolean hasFlash;
+    /** Whether a front facing camera can be switched to. */
+    final boolean canChangeCamera;
+
+    private CameraCapabilities(boolean hasBackCamera, boolean hasFrontCamera, boolean hasFlash,
+                               boolean canChangeCamera) {
+        this.hasBackCamera = hasBackCamera;
+        this.hasFrontCamera = hasFrontCamera;
+        this.hasFlash = hasFlash;
+        this.canChangeCamera = canChangeCamera;
+    }
+
+    @SuppressWarnings("deprecation")
+    static CameraCapabilities probe(Context context) {
+        PackageManager packageManager = context.getPackageManager();
+        boolean canChangeCamera = false;
+        Camera.CameraInfo info = new Camera.CameraInfo();
+        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
+            Camera.getCameraInfo(i, info);
+            if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+                canChangeCamera = true;
+                break;
+            }
+        }
+        return new CameraCapabilities(
+                packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA),
+                packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA_FRONT),
+                packageManager.hasSystemFeature(PackageManager.FEATURE_CAMERA_FLASH),
+                canChangeCamera);
+    }
+}
@@ -0,0 +1,35 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Camera settings tuned for scanning. Focus mode and scene mode are applied
+ * when the camera opens; zoom and metering can change while it is open.
+ */
+final class CameraControls {
+
+    static final String FOCUS_CONTINUOUS = "continuous";
+    static final String FOCUS_AUTO = "auto";
+    static final String FOCUS_MACRO = "macro";
+
+    static final CameraControls DEFAULT = new CameraControls(null, false, false, 1f);
+
+    /** One of the FOCUS_ modes, or null for the backend's default. */
+    final String focusMode;
+    /** Use the barcode scene mode where the camera has one. */
+    final boolean barcodeScene;
+    /** Focus and meter exposure on the scan region instead of the whole frame. */
+    final boolean meterScanRegion;
+    /** Digital zoom ratio, 1 for none; clamped to the camera's maximum. */
+    final float zoom;
+
+    CameraControls(String focusMode, boolean barcodeScene, boolean meterScanRegion, float zoom) {
+        this.focusMode = FOCUS_CONTINUOUS.equals(focusMode) || FOCUS_AUTO.equals(focusMode)
+                || FOCUS_MACRO.equals(focusMode) ? focusMode : null;
+        this.barcodeScene = barcodeScene;
+        this.meterScanRegion = meterScanRegion;
+        this.zoom = Float.isNaN(zoom) ? 1f : Math.max(1f, zoom);
+    }
+
+    CameraControls withZoom(float zoom) {
+        return new CameraControls(focusMode, barcodeScene, meterScanRegion, zoom);
+    }
+}
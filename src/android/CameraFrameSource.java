@@ -0,0 +1,49 @@
+package info.belluco.cordova.bbscanner;
+
+import com.journeyapps.barcodescanner.BarcodeView;
+import com.journeyapps.barcodescanner.SourceData;
+import com.journeyapps.barcodescanner.camera.CameraInstance;
+import com.journeyapps.barcodescanner.camera.PreviewCallback;
+
+/**
+ * Frames from the preview of a BarcodeView's camera. Requests made while
+ * the camera is closed are dropped.
+ */
+final class CameraFrameSource implements FrameSource {
+
+    private final BarcodeView barcodeView;
+    private volatile Callback callback;
+    private volatile int rotation;
+
+    private final PreviewCallback previewCallback = new PreviewCallback() {
+        @Override
+        public void onPreview(SourceData sourceData) {
+            Callback target = callback;
+            if (target != null) {
+                target.onFrame(new PreviewFrame(sourceData.getData(), sourceData.getDataWidth(),
+                        sourceData.getDataHeight(), rotation, sourceData));
+            }
+        }
+
+        @Override
+        public void onPreviewError(Exception e) {
+            Callback target = callback;
+            if (target != null)
+                target.onFrameError(e);
+        }
+    };
+
+    CameraFrameSource(BarcodeView barcodeView) {
+        this.barcodeView = barcodeView;
+    }
+
+    @Override
+    public void requestFrame(Callback callback) {
+        CameraInstance camera = barcodeView.getCameraInstance();
+        if (camera == null)
+            return;
+        this.callback = callback;
+        this.rotation = camera.getCameraRotation();
+        camera.requestPreview(previewCallback);
+    }
+}
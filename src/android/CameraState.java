@@ -0,0 +1,107 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lifecycle of the camera device. The UI thread reports every transition;
+ * the command thread, which must not run the next command before the
+ * camera got where the previous one left it, such as before toggling the
+ * torch or switching cameras, blocks until the transition instead of
+ * polling for it.
+ */
+final class CameraState {
+
+    enum State {
+        CLOSED, OPENING, OPEN, CLOSING
+    }
+
+    private static final EnumSet<State> SETTLED = EnumSet.of(State.CLOSED, State.OPEN);
+    private static final EnumSet<State> CLOSED = EnumSet.of(State.CLOSED);
+
+    private static final class Waiter {
+        final EnumSet<State> states;
+        final CountDownLatch reached = new CountDownLatch(1);
+
+        Waiter(EnumSet<State> states) {
+            this.states = states;
+        }
+    }
+
+    private final List<Waiter> waiters = new ArrayList<Waiter>();
+    private State state = State.CLOSED;
+
+    synchronized State get() {
+        return state;
+    }
+
+    /** Moves to the given state and wakes the threads waiting for it. */
+    synchronized void set(State next) {
+        state = next;
+        Iterator<Waiter> pending = waiters.iterator();
+        while (pending.hasNext()) {
+            Waiter waiter = pending.next();
+            if (waiter.states.contains(next)) {
+                pending.remove();
+                waiter.reached.countDown();
+            }
+        }
+    }
+
+    /**
+     * Moves to CLOSING if the camera is opening or open. A closed camera
+     * reports no close to wait for, so it stays CLOSED.
+     */
+    void startClosing() {
+        synchronized (this) {
+            if (state == State.CLOSED || state == State.CLOSING)
+                return;
+        }
+        set(State.CLOSING);
+    }
+
+    /**
+     * Moves a closed camera to OPENING and returns true. An open or opening
+     * camera reports no new preview start, so it keeps its state.
+     */
+    boolean startOpening() {
+        synchronized (this) {
+            if (state != State.CLOSED)
+                return false;
+        }
+        set(State.OPENING);
+        return true;
+    }
+
+    /**
+     * Blocks until the camera is in one of the states, or the timeout
+     * elapsed. Returns whether it got there.
+     */
+    boolean await(EnumSet<State> states, long timeoutMillis) throws InterruptedException {
+        Waiter waiter = new Waiter(states);
+        synchronized (this) {
+            if (states.contains(state))
+                return true;
+            waiters.add(waiter);
+        }
+        if (waiter.reached.await(timeoutMillis, TimeUnit.MILLISECONDS))
+            return true;
+        synchronized (this) {
+            waiters.remove(waiter);
+        }
+        // Reached between the timeout and the removal
+        return waiter.reached.getCount() == 0;
+    }
+
+    boolean awaitSettled(long timeoutMillis) throws InterruptedException {
+        return await(SETTLED, timeoutMillis);
+    }
+
+    boolean awaitClosed(long timeoutMillis) throws InterruptedException {
+        return await(CLOSED, timeoutMillis);
+    }
+}
@@ -0,0 +1,88 @@
+package info.belluco.cordova.bbscanner;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.view.View;
+
+/**
+ * A camera together with the view showing its preview. BarcodeViewBackend
+ * uses the android.hardware.Camera API through zxing-android-embedded,
+ * Camera2Backend the camera2 API. Methods are called on the UI thread and
+ * listener callbacks are made on it.
+ */
+interface CaptureBackend {
+
+    interface Listener {
+        void previewStarted();
+
+        void cameraError(Exception error);
+
+        /** After pause, once the camera is released. */
+        void cameraClosed();
+    }
+
+    interface SnapshotCallback {
+        /** May be called on any thread; the source is converted off the UI thread. */
+        void onSnapshot(SnapshotSource source);
+
+        void onSnapshotError(Exception error);
+    }
+
+    interface SnapshotSource {
+        /** The part of the preview that is shown, no larger than maxDimension. */
+        Bitmap toBitmap(SnapshotEncoder encoder, int maxDimension);
+    }
+
+    /** Reported as captureBackend in the status. */
+    String getName();
+
+    View getView();
+
+    /** Frames of the open camera; requests made while it is closed are dropped. */
+    FrameSource getFrameSource();
+
+    void setListener(Listener listener);
+
+    /** Camera.CameraInfo.CAMERA_FACING_BACK or _FRONT, used when the camera is next opened. */
+    void setCameraId(int cameraId);
+
+    /**
+     * The frame size aimed for when the camera is next opened, or null for
+     * the backend's default.
+     */
+    void setTargetFrameSize(FrameSize target);
+
+    /** Size of the frames of the open camera, null until it is known. */
+    FrameSize getFrameSize();
+
+    /** Opens the camera and starts the preview. */
+    void resume();
+
+    /**
+     * Starts closing the camera and returns right away; the listener's
+     * cameraClosed follows. Does nothing if the camera is not open.
+     */
+    void pause();
+
+    void setTorch(boolean on);
+
+    /**
+     * Focus and scene mode may only take effect when the camera is next
+     * opened; zoom is also applied to an open camera.
+     */
+    void setControls(CameraControls controls);
+
+    /**
+     * Focuses and meters exposure on a region relative to the preview
+     * framing rect, or on the whole frame when null.
+     */
+    void setMeteringRegion(ScanRegion region);
+
+    /** The area of the view whose preview is decoded, null before the preview started. */
+    Rect getFramingRect();
+
+    /** The same area in frame coordinates, rotated to display orientation. */
+    Rect getPreviewFramingRect();
+
+    void requestSnapshot(SnapshotCallback callback);
+}
@@ -0,0 +1,91 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the scanner commands one at a time, in the order they were received,
+ * on a single thread, so the camera lifecycle is only ever driven from one
+ * place. A command submitted with the same key as the command submitted
+ * just before it, while that one is still queued or running, is redundant
+ * and runs its duplicate action instead, which usually just replies with
+ * the current status. Once the previous command completed, a repeat runs
+ * again, so a retry gets its own result. Queries neither break nor extend
+ * such a run.
+ */
+final class CommandQueue {
+
+    private final ScanMetrics metrics;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "BBScanner commands");
+        }
+    });
+    // Key of the last command while it is queued or running
+    private String lastKey;
+    private Runnable lastCommand;
+
+    CommandQueue(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Queues a command that is never redundant. */
+    synchronized void submit(Runnable command) {
+        lastKey = null;
+        lastCommand = null;
+        executor.execute(command);
+    }
+
+    /**
+     * Queues command, or duplicate if the previous command had the same key
+     * and has not completed yet.
+     */
+    synchronized void submit(String key, final Runnable command, Runnable duplicate) {
+        if (key.equals(lastKey)) {
+            metrics.commandsCoalesced.incrementAndGet();
+            executor.execute(duplicate);
+            return;
+        }
+        Runnable tracked = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    command.run();
+                } finally {
+                    completed(this);
+                }
+            }
+        };
+        lastKey = key;
+        lastCommand = tracked;
+        executor.execute(tracked);
+    }
+
+    private synchronized void completed(Runnable command) {
+        if (lastCommand == command) {
+            lastKey = null;
+            lastCommand = null;
+        }
+    }
+
+    /** Queues a command that does not change the scanner state. */
+    void query(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Called when the state changed outside of a command, such as on a
+     * camera error, so that the next command runs even if it repeats the
+     * previous one.
+     */
+    synchronized void invalidate() {
+        lastKey = null;
+        lastCommand = null;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,84 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides how hard frames are decoded. Frames are first decoded with the
+ * fast hints only; after missesPerLevel frames in a row without a result,
+ * the next frames are also tried with TRY_HARDER, then also inverted, then
+ * also rotated by 90 degrees, up to maxLevel. A result drops back to FAST.
+ * Shared by the loop thread and the decode workers.
+ */
+final class DecodeEscalation {
+
+    static final int FAST = 0;
+    static final int TRY_HARDER = 1;
+    static final int INVERTED = 2;
+    static final int ROTATED = 3;
+
+    private final int missesPerLevel;
+    private final int maxLevel;
+    private final ScanMetrics metrics;
+    private final AtomicInteger level = new AtomicInteger(FAST);
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param missesPerLevel frames without a result before the next level, 0 to stay at FAST
+     * @param maxLevel       the highest level tried
+     */
+    DecodeEscalation(int missesPerLevel, int maxLevel, ScanMetrics metrics) {
+        this.missesPerLevel = Math.max(0, missesPerLevel);
+        this.maxLevel = Math.max(FAST, Math.min(ROTATED, maxLevel));
+        this.metrics = metrics;
+    }
+
+    /** "tryHarder", "inverted" or "rotated", or -1 for any other name. */
+    static int levelForName(String name) {
+        if ("tryHarder".equals(name))
+            return TRY_HARDER;
+        if ("inverted".equals(name))
+            return INVERTED;
+        if ("rotated".equals(name))
+            return ROTATED;
+        return -1;
+    }
+
+    boolean isEnabled() {
+        return missesPerLevel > 0 && maxLevel > FAST;
+    }
+
+    /** The level the next frame is decoded at. */
+    int level() {
+        return level.get();
+    }
+
+    /** Back to FAST, when a scan starts. */
+    void reset() {
+        misses.set(0);
+        setLevel(FAST);
+    }
+
+    /** Called for each decoded frame without a result. */
+    void onMiss() {
+        if (misses.incrementAndGet() < missesPerLevel)
+            return;
+        misses.set(0);
+        int current = level.get();
+        if (current < maxLevel && level.compareAndSet(current, current + 1)) {
+            metrics.decodeEscalations.incrementAndGet();
+            metrics.decodeEscalationLevel.set(current + 1);
+        }
+    }
+
+    /** Called for each frame with a result, decoded at levelUsed. */
+    void onResult(int levelUsed) {
+        if (levelUsed > FAST)
+            metrics.escalatedResults.incrementAndGet();
+        reset();
+    }
+
+    private void setLevel(int value) {
+        level.set(value);
+        metrics.decodeEscalationLevel.set(value);
+    }
+}
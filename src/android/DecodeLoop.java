@@ -0,0 +1,306 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulls frames from a FrameSource one at a time and passes them through a
+ * FrameScheduler before they reach the decoder, so the next frame is only
+ * requested once a decode is due. With more than one decode worker, frames
+ * are handed to a DecodeWorkerPool and the next frame is requested while
+ * they are decoded. Only the luminance inside both the crop and the scan
+ * region of each frame is copied, into a buffer from a FrameBufferPool, so
+ * steady-state decoding does not allocate frame buffers, and a frame is not
+ * used once its luminance was copied, so the FrameSource may reuse it.
+ * Results are delivered on the result executor, the UI thread on a device.
+ *
+ * Does not depend on Android, so recorded frames can be replayed through it
+ * off-device.
+ */
+class DecodeLoop {
+
+    interface Listener {
+        /**
+         * @param frameNanos  PreviewFrame.timestampNanos of the frame
+         * @param decodeNanos time the decoder took on the frame
+         */
+        void onResult(Result result, long frameNanos, long decodeNanos);
+    }
+
+    /** A frame that was requested but never delivered is requested again after this delay. */
+    private static final long FRAME_TIMEOUT_MS = 500;
+
+    private final FrameSource source;
+    private final ScanMetrics metrics;
+    private final Executor resultExecutor;
+    private final Listener listener;
+    private final FrameBufferPool buffers;
+    private volatile ScheduledExecutorService thread;
+    private volatile boolean running;
+    private volatile ScanDecoderFactory decoderFactory;
+    private volatile FrameDecoder decoder;
+    private volatile DecodeWorkerPool workerPool;
+    private volatile int[] crop;
+    private volatile FrameScheduler scheduler;
+    private volatile FrameQualityFilter qualityFilter;
+    private volatile DecodeEscalation escalation;
+    // Only touched on the loop thread
+    private long frameNumber;
+    private ScheduledFuture<?> pendingRequest;
+
+    DecodeLoop(FrameSource source, ScanMetrics metrics, Executor resultExecutor, Listener listener) {
+        this.source = source;
+        this.metrics = metrics;
+        this.resultExecutor = resultExecutor;
+        this.listener = listener;
+        this.buffers = new FrameBufferPool(2, metrics);
+    }
+
+    void setDecoderFactory(ScanDecoderFactory factory) {
+        this.decoderFactory = factory;
+        this.decoder = factory.createDecoder();
+        DecodeWorkerPool pool = workerPool;
+        if (pool != null)
+            pool.setDecoderFactory(factory);
+    }
+
+    /**
+     * Sets the part of the frame that is decoded, in display orientation;
+     * call when the preview (re)starts. By default the whole frame is decoded.
+     */
+    void setCrop(int left, int top, int right, int bottom) {
+        this.crop = new int[] {left, top, right, bottom};
+    }
+
+    /**
+     * Starts or restarts decoding with the given scheduler. The scheduler
+     * must allow as many frames in flight as there are workers.
+     *
+     * @param qualityFilter skips blurry or moving frames, or null
+     * @param escalation    decodes harder after frames without a result, or null
+     */
+    synchronized void start(FrameScheduler scheduler, int workers, FrameQualityFilter qualityFilter,
+                            DecodeEscalation escalation) {
+        halt();
+        this.scheduler = scheduler;
+        if (qualityFilter != null && qualityFilter.isEnabled()) {
+            qualityFilter.reset();
+            this.qualityFilter = qualityFilter;
+        } else {
+            this.qualityFilter = null;
+        }
+        if (escalation != null && escalation.isEnabled()) {
+            escalation.reset();
+            this.escalation = escalation;
+        } else {
+            this.escalation = null;
+        }
+        // One buffer per frame being decoded, plus the one being filled
+        buffers.setCapacity(workers + 1);
+        if (workers > 1) {
+            workerPool = new DecodeWorkerPool(workers, decoderFactory, scheduler, buffers, this.escalation, metrics,
+                    new DecodeWorkerPool.Listener() {
+                        @Override
+                        public void onResult(Result result, long frameNanos, long decodeNanos) {
+                            deliver(result, frameNanos, decodeNanos);
+                        }
+                    });
+        }
+        thread = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "BBScanner frames");
+            }
+        });
+        running = true;
+        thread.execute(requestFrame);
+    }
+
+    /**
+     * Stops decoding and releases the pooled frame buffers. Frames already
+     * delivered are discarded.
+     */
+    synchronized void stop() {
+        halt();
+        buffers.clear();
+    }
+
+    // Keeps the pooled buffers for the next start
+    private void halt() {
+        running = false;
+        if (thread != null) {
+            thread.shutdownNow();
+            thread = null;
+        }
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+    }
+
+    private final Runnable requestFrame = new Runnable() {
+        @Override
+        public void run() {
+            ScheduledExecutorService loopThread = thread;
+            if (!running || loopThread == null)
+                return;
+            source.requestFrame(frameCallback);
+            // Sources drop requests made while the camera is closed or not yet
+            // previewing, so keep asking until a frame arrives.
+            requestNextFrame(loopThread, TimeUnit.MILLISECONDS.toNanos(FRAME_TIMEOUT_MS));
+        }
+    };
+
+    private final FrameSource.Callback frameCallback = new FrameSource.Callback() {
+        @Override
+        public void onFrame(final PreviewFrame frame) {
+            ScheduledExecutorService loopThread = thread;
+            if (!running || loopThread == null)
+                return;
+            try {
+                loopThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        DecodeLoop.this.onFrame(frame);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Stopped meanwhile
+            }
+        }
+
+        @Override
+        public void onFrameError(Exception e) {
+            // The pending request times out and is made again
+        }
+    };
+
+    // Runs on the loop thread.
+    private void onFrame(PreviewFrame frame) {
+        ScheduledExecutorService loopThread = thread;
+        if (!running || loopThread == null)
+            return;
+
+        FrameScheduler frameScheduler = scheduler;
+        long now = System.nanoTime();
+        int[] fitted = fitCrop(crop, frame);
+        int[] decoded = regionOf(fitted, decoderFactory.getRegion());
+        // Skipped frames are counted as received but never reach the scheduler,
+        // so they do not delay the next decode
+        FrameQualityFilter filter = qualityFilter;
+        if (decoded != null && filter != null && !filter.accept(frame, decoded[0], decoded[1], decoded[2], decoded[3])) {
+            metrics.framesReceived.incrementAndGet();
+            requestNextFrame(loopThread, 0);
+            return;
+        }
+        if (decoded == null || !frameScheduler.onFrame(now)) {
+            requestNextFrame(loopThread, frameScheduler.delayUntilNextDecode(now));
+            return;
+        }
+
+        int width = decoded[2] - decoded[0];
+        int height = decoded[3] - decoded[1];
+        // Results are reported relative to the crop, as if it had been decoded whole
+        int offsetLeft = decoded[0] - fitted[0];
+        int offsetTop = decoded[1] - fitted[1];
+        byte[] buffer = buffers.acquire(width * height);
+        LuminanceExtractor.extract(frame.data, frame.dataWidth, frame.dataHeight, frame.rowStride,
+                frame.rotation, decoded[0], decoded[1], width, height, buffer);
+        LuminanceSource luminance = new PlanarYUVLuminanceSource(buffer, width, height, 0, 0, width, height, false);
+
+        DecodeWorkerPool pool = workerPool;
+        if (pool != null) {
+            pool.submit(frameNumber++, luminance, buffer, frame.timestampNanos, offsetLeft, offsetTop);
+            requestNextFrame(loopThread, frameScheduler.delayUntilNextDecode(System.nanoTime()));
+            return;
+        }
+
+        DecodeEscalation frameEscalation = escalation;
+        int level = frameEscalation != null ? frameEscalation.level() : DecodeEscalation.FAST;
+        Result rawResult = null;
+        long start = System.nanoTime();
+        long latency = 0;
+        try {
+            rawResult = decoder.decode(luminance, level);
+        } finally {
+            latency = System.nanoTime() - start;
+            metrics.decodeLatency.record(latency);
+            frameScheduler.onDecodeFinished(latency);
+            buffers.release(buffer);
+        }
+
+        if (frameEscalation != null) {
+            if (rawResult != null)
+                frameEscalation.onResult(level);
+            else
+                frameEscalation.onMiss();
+        }
+        if (rawResult != null)
+            deliver(FrameDecoder.translate(rawResult, offsetLeft, offsetTop), frame.timestampNanos, latency);
+        requestNextFrame(loopThread, frameScheduler.delayUntilNextDecode(System.nanoTime()));
+    }
+
+    // Limits the crop to the frame in display orientation, null if nothing is left.
+    private static int[] fitCrop(int[] crop, PreviewFrame frame) {
+        int width = frame.displayWidth();
+        int height = frame.displayHeight();
+        if (crop == null)
+            return new int[] {0, 0, width, height};
+        int left = Math.max(0, crop[0]);
+        int top = Math.max(0, crop[1]);
+        int right = Math.min(width, crop[2]);
+        int bottom = Math.min(height, crop[3]);
+        if (left >= right || top >= bottom)
+            return null;
+        if (left == crop[0] && top == crop[1] && right == crop[2] && bottom == crop[3])
+            return crop;
+        return new int[] {left, top, right, bottom};
+    }
+
+    // The part of the crop inside the scan region, null if nothing is left.
+    private static int[] regionOf(int[] crop, ScanRegion region) {
+        if (crop == null || region == null)
+            return crop;
+        if (region.isEmpty())
+            return null;
+        int width = crop[2] - crop[0];
+        int height = crop[3] - crop[1];
+        int left = crop[0] + region.cropLeft(width);
+        int top = crop[1] + region.cropTop(height);
+        return new int[] {left, top, left + region.cropWidth(width), top + region.cropHeight(height)};
+    }
+
+    // Replaces any pending request, including the timeout of the last one.
+    private void requestNextFrame(ScheduledExecutorService loopThread, long delayNanos) {
+        if (pendingRequest != null)
+            pendingRequest.cancel(false);
+        pendingRequest = null;
+        if (!running)
+            return;
+        try {
+            pendingRequest = loopThread.schedule(requestFrame, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Stopped meanwhile
+        }
+    }
+
+    private void deliver(final Result result, final long frameNanos, final long decodeNanos) {
+        metrics.successfulDecodes.incrementAndGet();
+        resultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (running)
+                    listener.onResult(result, frameNanos, decodeNanos);
+            }
+        });
+    }
+}
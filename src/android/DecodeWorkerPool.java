@@ -0,0 +1,154 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.Result;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes frames on a fixed number of worker threads. Each worker owns its
+ * own decoder, created from the current factory, because readers are not
+ * thread safe. Frames are numbered in arrival order: once a frame produced
+ * a result, older frames are no longer decoded and their late results are
+ * ignored, so results are never delivered out of order. Each frame's
+ * luminance buffer goes back to the FrameBufferPool once it is decoded.
+ * Frames are decoded at the DecodeEscalation level current when their
+ * decode starts.
+ */
+final class DecodeWorkerPool {
+
+    interface Listener {
+        /** Called on a worker thread for each frame that won. */
+        void onResult(Result result, long frameNanos, long decodeNanos);
+    }
+
+    private final ExecutorService executor;
+    private final FrameScheduler scheduler;
+    private final ScanMetrics metrics;
+    private final Listener listener;
+    private final FrameBufferPool buffers;
+    private final DecodeEscalation escalation;
+    private final AtomicLong newestResultFrame = new AtomicLong(-1);
+    private volatile ScanDecoderFactory factory;
+
+    private final ThreadLocal<WorkerDecoder> workerDecoder = new ThreadLocal<WorkerDecoder>() {
+        @Override
+        protected WorkerDecoder initialValue() {
+            return new WorkerDecoder();
+        }
+    };
+
+    private static final class WorkerDecoder {
+        ScanDecoderFactory factory;
+        FrameDecoder decoder;
+    }
+
+    /** @param escalation null to always decode with the fast hints */
+    DecodeWorkerPool(int size, ScanDecoderFactory factory, FrameScheduler scheduler, FrameBufferPool buffers,
+                     DecodeEscalation escalation, ScanMetrics metrics, Listener listener) {
+        this.factory = factory;
+        this.buffers = buffers;
+        this.escalation = escalation;
+        this.scheduler = scheduler;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.executor = Executors.newFixedThreadPool(size, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "BBScanner decoder " + count.incrementAndGet());
+            }
+        });
+    }
+
+    /** Workers pick up the new factory before their next frame. */
+    void setDecoderFactory(ScanDecoderFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Queues a frame the scheduler accepted. The scheduler is told when the
+     * decode finishes or is cancelled, and the buffer backing the source is
+     * released. Result points are moved by offsetLeft and offsetTop.
+     */
+    void submit(final long frameNumber, final LuminanceSource source, final byte[] buffer, final long frameNanos,
+                final int offsetLeft, final int offsetTop) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        decode(frameNumber, source, frameNanos, offsetLeft, offsetTop);
+                    } finally {
+                        buffers.release(buffer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            scheduler.onDecodeCancelled();
+            buffers.release(buffer);
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void decode(long frameNumber, LuminanceSource source, long frameNanos, int offsetLeft, int offsetTop) {
+        if (frameNumber < newestResultFrame.get()) {
+            metrics.decodesCancelled.incrementAndGet();
+            scheduler.onDecodeCancelled();
+            return;
+        }
+        int level = escalation != null ? escalation.level() : DecodeEscalation.FAST;
+        long start = System.nanoTime();
+        long latency = 0;
+        Result result = null;
+        try {
+            result = decoder().decode(source, level);
+        } finally {
+            latency = System.nanoTime() - start;
+            metrics.decodeLatency.record(latency);
+            scheduler.onDecodeFinished(latency);
+        }
+        if (escalation != null) {
+            if (result != null)
+                escalation.onResult(level);
+            else
+                escalation.onMiss();
+        }
+        if (result == null)
+            return;
+        if (claim(frameNumber))
+            listener.onResult(FrameDecoder.translate(result, offsetLeft, offsetTop), frameNanos, latency);
+        else
+            metrics.staleResultsIgnored.incrementAndGet();
+    }
+
+    // A result wins only if no newer frame has produced one yet.
+    private boolean claim(long frameNumber) {
+        while (true) {
+            long newest = newestResultFrame.get();
+            if (frameNumber <= newest)
+                return false;
+            if (newestResultFrame.compareAndSet(newest, frameNumber))
+                return true;
+        }
+    }
+
+    private FrameDecoder decoder() {
+        WorkerDecoder worker = workerDecoder.get();
+        ScanDecoderFactory current = factory;
+        if (worker.factory != current) {
+            worker.factory = current;
+            worker.decoder = current.createDecoder();
+        }
+        return worker.decoder;
+    }
+}
@@ -0,0 +1,59 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of recently delivered results, keyed on text and format.
+ * A result seen again within the window is suppressed; every sighting
+ * refreshes the entry, so a label held in front of the camera stays
+ * suppressed until it has been out of view for a whole window.
+ */
+final class DuplicateFilter {
+
+    private final long windowMillis;
+    private final int capacity;
+    private final ScanMetrics metrics;
+    private final LinkedHashMap<String, Long> lastSeen;
+    // Time of the accept call in progress, so eviction uses the caller's clock
+    private long nowMillis;
+
+    DuplicateFilter(long windowMillis, int capacity, ScanMetrics metrics) {
+        this.windowMillis = windowMillis;
+        this.capacity = Math.max(1, capacity);
+        this.metrics = metrics;
+        this.lastSeen = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= DuplicateFilter.this.capacity)
+                    return false;
+                // An entry still inside its window was evicted too early:
+                // the cache is too small for the number of distinct codes.
+                if (DuplicateFilter.this.nowMillis - eldest.getValue() < DuplicateFilter.this.windowMillis)
+                    DuplicateFilter.this.metrics.duplicateCacheEvictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns true if the result should be delivered, false if the same
+     * text and format was already seen within the window.
+     */
+    synchronized boolean accept(String text, BarcodeFormat format, long nowMillis) {
+        this.nowMillis = nowMillis;
+        String key = format.name() + ':' + text;
+        Long previous = lastSeen.put(key, nowMillis);
+        if (previous != null && nowMillis - previous < windowMillis) {
+            metrics.duplicatesSuppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    synchronized void clear() {
+        lastSeen.clear();
+    }
+}
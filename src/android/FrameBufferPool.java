@@ -0,0 +1,68 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Pool of luminance buffers shared by the preview callback, which fills
+ * them, and the decoder, which releases them once a frame is decoded. In
+ * steady state the frame size does not change and every frame reuses a
+ * pooled buffer; the allocation counters in ScanMetrics show whether that
+ * holds.
+ */
+final class FrameBufferPool {
+
+    private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+    private final ScanMetrics metrics;
+    private int capacity;
+
+    /** @param capacity number of released buffers kept for reuse */
+    FrameBufferPool(int capacity, ScanMetrics metrics) {
+        this.capacity = Math.max(1, capacity);
+        this.metrics = metrics;
+    }
+
+    /** Should be at least the number of frames that can be in flight at once. */
+    synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        while (free.size() > this.capacity)
+            free.removeLast();
+    }
+
+    /** Returns a buffer of at least size bytes. */
+    synchronized byte[] acquire(int size) {
+        Iterator<byte[]> buffers = free.iterator();
+        while (buffers.hasNext()) {
+            byte[] buffer = buffers.next();
+            if (buffer.length >= size) {
+                buffers.remove();
+                metrics.frameBufferReuses.incrementAndGet();
+                return buffer;
+            }
+        }
+        metrics.frameBufferAllocations.incrementAndGet();
+        return new byte[size];
+    }
+
+    synchronized void release(byte[] buffer) {
+        if (buffer == null)
+            return;
+        if (free.size() >= capacity) {
+            // Keep the larger buffers, they can serve any frame size.
+            byte[] smallest = null;
+            for (byte[] pooled : free) {
+                if (smallest == null || pooled.length < smallest.length)
+                    smallest = pooled;
+            }
+            if (smallest.length >= buffer.length)
+                return;
+            free.remove(smallest);
+        }
+        free.push(buffer);
+    }
+
+    /** Drops the pooled buffers; buffers still in use are pooled again when released. */
+    synchronized void clear() {
+        free.clear();
+    }
+}
@@ -0,0 +1,213 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.InvertedLuminanceSource;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Reader;
+import com.google.zxing.ReaderException;
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.multi.GenericMultipleBarcodeReader;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes one luminance frame with the readers of the requested formats.
+ * In multiple mode every code in the frame is decoded in one pass and
+ * returned together, see getResults.
+ *
+ * A DecodeEscalation level above FAST adds slower attempts: TRY_HARDER,
+ * then also the inverted frame, then also the frame rotated by 90 degrees.
+ *
+ * Only depends on ZXing core, so it runs on a plain JVM; bench/ benchmarks
+ * it off-device. Not thread safe: use one instance per decoding thread.
+ */
+final class FrameDecoder {
+
+    private final MultiFormatReader reader;
+    private final Map<DecodeHintType, Object> hints;
+    private final boolean multiple;
+    private final GenericMultipleBarcodeReader multipleReader;
+    // Created on the first escalated decode
+    private MultiFormatReader harderReader;
+    private GenericMultipleBarcodeReader harderMultipleReader;
+
+    FrameDecoder(Set<BarcodeFormat> formats, Map<DecodeHintType, ?> baseHints, boolean multiple) {
+        this.hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        this.hints.putAll(baseHints);
+        this.hints.putAll(ScanFormats.hints(formats));
+        this.reader = new MultiFormatReader();
+        this.reader.setHints(hints);
+        this.multiple = multiple;
+        this.multipleReader = multiple ? new GenericMultipleBarcodeReader(new PresetReader(reader)) : null;
+    }
+
+    /**
+     * Decodes with the hints the reader already has. GenericMultipleBarcodeReader
+     * passes its hints on to every decode, and MultiFormatReader.decode
+     * rebuilds its readers from them each time; null hints would even reset
+     * the formats.
+     */
+    private static final class PresetReader implements Reader {
+        private final MultiFormatReader reader;
+
+        PresetReader(MultiFormatReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image) throws NotFoundException {
+            return reader.decodeWithState(image);
+        }
+
+        @Override
+        public Result decode(BinaryBitmap image, Map<DecodeHintType, ?> hints) throws NotFoundException {
+            return reader.decodeWithState(image);
+        }
+
+        @Override
+        public void reset() {
+            reader.reset();
+        }
+    }
+
+    /**
+     * Returns all the codes of a frame decoded in multiple mode, or null for
+     * a single code. The frame's first code doubles as the result itself, so
+     * callers that expect a single result still work; Result is final, so
+     * the codes travel in its OTHER metadata.
+     */
+    static Result[] getResults(Result result) {
+        Map<ResultMetadataType, Object> metadata = result.getResultMetadata();
+        Object results = metadata == null ? null : metadata.get(ResultMetadataType.OTHER);
+        return results instanceof Result[] ? (Result[]) results : null;
+    }
+
+    private static Result multipleResult(Result[] results) {
+        Result first = copy(results[0], results[0].getResultPoints());
+        first.putMetadata(ResultMetadataType.OTHER, results);
+        return first;
+    }
+
+    /** Returns null if the frame holds no code of the requested formats. */
+    Result decode(LuminanceSource source) {
+        return decode(source, DecodeEscalation.FAST);
+    }
+
+    /**
+     * Moves the points of a result, and of every code of a multiple result,
+     * by dx and dy, such as from a cropped frame back onto the whole frame.
+     */
+    static Result translate(Result result, int dx, int dy) {
+        if (dx == 0 && dy == 0)
+            return result;
+        Result[] results = getResults(result);
+        if (results != null) {
+            Result[] translated = new Result[results.length];
+            for (int i = 0; i < results.length; i++)
+                translated[i] = translatePoints(results[i], dx, dy);
+            return multipleResult(translated);
+        }
+        return translatePoints(result, dx, dy);
+    }
+
+    /** Decodes with the attempts of a DecodeEscalation level. */
+    Result decode(LuminanceSource source, int level) {
+        if (level <= DecodeEscalation.FAST)
+            return decodeWith(source, reader, multipleReader);
+        if (harderReader == null) {
+            Map<DecodeHintType, Object> harderHints = new EnumMap<DecodeHintType, Object>(hints);
+            harderHints.put(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+            harderReader = new MultiFormatReader();
+            harderReader.setHints(harderHints);
+            harderMultipleReader = multiple ? new GenericMultipleBarcodeReader(new PresetReader(harderReader)) : null;
+        }
+        Result result = decodeWith(source, harderReader, harderMultipleReader);
+        // White on black codes
+        if (result == null && level >= DecodeEscalation.INVERTED)
+            result = decodeWith(new InvertedLuminanceSource(source), harderReader, harderMultipleReader);
+        // 1D codes held upright; 2D readers find any orientation already
+        if (result == null && level >= DecodeEscalation.ROTATED) {
+            result = decodeWith(rotateCounterClockwise(source), harderReader, harderMultipleReader);
+            if (result != null)
+                result = unrotate(result, source.getWidth());
+        }
+        return result;
+    }
+
+    private static Result decodeWith(LuminanceSource source, MultiFormatReader reader,
+                                     GenericMultipleBarcodeReader multipleReader) {
+        BinaryBitmap bitmap = new BinaryBitmap(new HybridBinarizer(source));
+        try {
+            if (multipleReader == null)
+                return reader.decodeWithState(bitmap);
+            Result[] results = multipleReader.decodeMultiple(bitmap);
+            return results.length == 0 ? null : multipleResult(results);
+        } catch (ReaderException e) {
+            return null;
+        } finally {
+            reader.reset();
+        }
+    }
+
+    // PlanarYUVLuminanceSource cannot rotate itself, so this copies it
+    private static LuminanceSource rotateCounterClockwise(LuminanceSource source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        byte[] matrix = source.getMatrix();
+        byte[] rotated = new byte[width * height];
+        for (int y = 0; y < width; y++) {
+            int column = width - 1 - y;
+            for (int x = 0; x < height; x++)
+                rotated[y * height + x] = matrix[x * width + column];
+        }
+        return new PlanarYUVLuminanceSource(rotated, height, width, 0, 0, height, width, false);
+    }
+
+    // Maps the points of a result found in the rotated copy back onto a
+    // source of the given width, as ZXing's own OneDReader does
+    private static Result unrotate(Result result, int width) {
+        Result[] results = getResults(result);
+        if (results != null) {
+            Result[] unrotated = new Result[results.length];
+            for (int i = 0; i < results.length; i++)
+                unrotated[i] = unrotate(results[i], width);
+            return multipleResult(unrotated);
+        }
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null)
+            return result;
+        ResultPoint[] mapped = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            mapped[i] = points[i] == null ? null : new ResultPoint(width - points[i].getY() - 1, points[i].getX());
+        }
+        return copy(result, mapped);
+    }
+
+    private static Result translatePoints(Result result, int dx, int dy) {
+        ResultPoint[] points = result.getResultPoints();
+        if (points == null)
+            return result;
+        ResultPoint[] translated = new ResultPoint[points.length];
+        for (int i = 0; i < points.length; i++) {
+            translated[i] = points[i] == null ? null : new ResultPoint(points[i].getX() + dx, points[i].getY() + dy);
+        }
+        return copy(result, translated);
+    }
+
+    private static Result copy(Result result, ResultPoint[] points) {
+        Result copy = new Result(result.getText(), result.getRawBytes(), points,
+                result.getBarcodeFormat(), result.getTimestamp());
+        copy.putAllMetadata(result.getResultMetadata());
+        return copy;
+    }
+}
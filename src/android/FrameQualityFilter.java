@@ -0,0 +1,141 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Skips frames that are too blurry, or changed too much since the previous
+ * frame, to be worth decoding. Both are measured on a grid of at most 64
+ * rows and 64 columns of the luminance inside the crop, read straight from
+ * the frame in sensor orientation, and relative to the contrast of the
+ * grid's samples so that lighting does not matter:
+ *
+ * - sharpness: root mean square of the differences between neighbouring
+ *   pixels along the grid lines, in percent of the standard deviation of
+ *   the samples. Blur spreads an edge over more pixels, and squaring makes
+ *   many small steps count less than one large one. Whole lines are read
+ *   so that edges between samples count.
+ * - motion: mean difference between the samples at the grid's crossings
+ *   and those of the previous frame, in percent of their mean deviation.
+ *
+ * At most MAX_CONSECUTIVE_SKIPS frames are skipped in a row, so a scene
+ * that never passes, such as a code with very large modules, is still
+ * decoded now and then. Used on the decode loop thread only.
+ */
+final class FrameQualityFilter {
+
+    private static final int GRID = 64;
+    static final int MAX_CONSECUTIVE_SKIPS = 8;
+
+    private final double minSharpness;
+    private final double maxMotion;
+    private final ScanMetrics metrics;
+    private int[] samples = new int[GRID * GRID];
+    private int[] previous = new int[GRID * GRID];
+    private int previousCount;
+    private int consecutiveSkips;
+
+    /**
+     * @param minSharpness frames below are skipped, 0 to not check sharpness
+     * @param maxMotion    frames above are skipped, 0 to not check motion
+     */
+    FrameQualityFilter(double minSharpness, double maxMotion, ScanMetrics metrics) {
+        this.minSharpness = Math.max(0, minSharpness);
+        this.maxMotion = Math.max(0, maxMotion);
+        this.metrics = metrics;
+    }
+
+    boolean isEnabled() {
+        return minSharpness > 0 || maxMotion > 0;
+    }
+
+    /** Forgets the previous frame, when a scan starts. */
+    void reset() {
+        previousCount = 0;
+        consecutiveSkips = 0;
+    }
+
+    /**
+     * Whether the part of the frame inside the crop, given in display
+     * orientation, should be decoded.
+     */
+    boolean accept(PreviewFrame frame, int left, int top, int right, int bottom) {
+        float width = frame.displayWidth();
+        float height = frame.displayHeight();
+        ScanRegion sensor = new ScanRegion(left / width, top / height, right / width, bottom / height)
+                .unrotate(frame.rotation);
+        // The last row and column read are x1 and y1
+        int x0 = (int) (sensor.left * frame.dataWidth);
+        int y0 = (int) (sensor.top * frame.dataHeight);
+        int x1 = Math.min(frame.dataWidth - 1, (int) (sensor.right * frame.dataWidth));
+        int y1 = Math.min(frame.dataHeight - 1, (int) (sensor.bottom * frame.dataHeight));
+        if (x1 - x0 < 2 || y1 - y0 < 2)
+            return true;
+        int stepX = (x1 - x0 - 1) / GRID + 1;
+        int stepY = (y1 - y0 - 1) / GRID + 1;
+
+        byte[] data = frame.data;
+        int stride = frame.rowStride;
+        int count = 0;
+        long sum = 0;
+        long gradient = 0;
+        long pairs = 0;
+        for (int y = y0; y < y1; y += stepY) {
+            int row = y * stride;
+            int previousValue = data[row + x0] & 0xff;
+            for (int x = x0 + 1; x <= x1; x++) {
+                int value = data[row + x] & 0xff;
+                gradient += (value - previousValue) * (value - previousValue);
+                previousValue = value;
+            }
+            pairs += x1 - x0;
+            for (int x = x0; x < x1; x += stepX) {
+                int value = data[row + x] & 0xff;
+                sum += value;
+                samples[count++] = value;
+            }
+        }
+        for (int x = x0; x < x1; x += stepX) {
+            int previousValue = data[y0 * stride + x] & 0xff;
+            for (int y = y0 + 1; y <= y1; y++) {
+                int value = data[y * stride + x] & 0xff;
+                gradient += (value - previousValue) * (value - previousValue);
+                previousValue = value;
+            }
+            pairs += y1 - y0;
+        }
+        int mean = (int) (sum / count);
+        long deviation = 0;
+        long variance = 0;
+        for (int i = 0; i < count; i++) {
+            int difference = samples[i] - mean;
+            deviation += Math.abs(difference);
+            variance += difference * difference;
+        }
+        // Flat samples have neither edges nor anything to decode
+        double sharpness = variance > 0 ? 100 * Math.sqrt((double) gradient / pairs / ((double) variance / count)) : 0;
+        double motion = 0;
+        if (previousCount == count && deviation > 0) {
+            long difference = 0;
+            for (int i = 0; i < count; i++)
+                difference += Math.abs(samples[i] - previous[i]);
+            motion = 100.0 * difference / deviation;
+        }
+        int[] swap = previous;
+        previous = samples;
+        samples = swap;
+        previousCount = count;
+
+        metrics.frameSharpness.set(Math.round(sharpness));
+        metrics.frameMotion.set(Math.round(motion));
+        boolean blurry = minSharpness > 0 && sharpness < minSharpness;
+        boolean moving = maxMotion > 0 && motion > maxMotion;
+        if ((!blurry && !moving) || consecutiveSkips >= MAX_CONSECUTIVE_SKIPS) {
+            consecutiveSkips = 0;
+            return true;
+        }
+        consecutiveSkips++;
+        if (blurry)
+            metrics.framesSkippedBlurry.incrementAndGet();
+        else
+            metrics.framesSkippedMotion.incrementAndGet();
+        return false;
+    }
+}
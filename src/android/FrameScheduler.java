@@ -0,0 +1,92 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which preview frames are decoded. Frames that arrive while the
+ * decoder is busy, or before the next decode is due, are dropped. The decode
+ * interval comes from the target decode rate and, in adaptive mode, is
+ * stretched so that decoding takes at most maxLoad of the wall time.
+ */
+final class FrameScheduler {
+
+    /** Weight of the newest sample in the decode latency average. */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private final long minIntervalNanos;
+    private final boolean adaptive;
+    private final double maxLoad;
+    private final int maxInFlight;
+    private final ScanMetrics metrics;
+
+    private long intervalNanos;
+    private long nextDecodeNanos;
+    private double averageLatencyNanos;
+    private int inFlight;
+
+    /**
+     * @param decodeRate  target decodes per second, or 0 for no limit
+     * @param adaptive    whether to slow down when decoding is slow
+     * @param maxLoad     share of wall time the decoder may use in adaptive mode
+     * @param maxInFlight number of frames that may be decoded at the same time
+     */
+    FrameScheduler(double decodeRate, boolean adaptive, double maxLoad, int maxInFlight, ScanMetrics metrics) {
+        this.minIntervalNanos = decodeRate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / decodeRate) : 0;
+        this.adaptive = adaptive;
+        this.maxLoad = maxLoad > 0 && maxLoad <= 1 ? maxLoad : 1;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.metrics = metrics;
+        this.intervalNanos = minIntervalNanos;
+        metrics.decodeIntervalMillis.set(TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+    }
+
+    /** The scheduler used when a scan sets no decode rate options. */
+    static FrameScheduler unlimited(ScanMetrics metrics) {
+        return new FrameScheduler(0, false, 1, 1, metrics);
+    }
+
+    /**
+     * Called for every frame delivered by the camera. Returns true if the
+     * frame should be decoded, in which case onDecodeFinished or, if the
+     * decode never ran, onDecodeCancelled must follow.
+     */
+    synchronized boolean onFrame(long nowNanos) {
+        metrics.framesReceived.incrementAndGet();
+        if (inFlight >= maxInFlight || nowNanos < nextDecodeNanos) {
+            metrics.framesDropped.incrementAndGet();
+            return false;
+        }
+        inFlight++;
+        nextDecodeNanos = nowNanos + intervalNanos;
+        metrics.framesDecoded.incrementAndGet();
+        return true;
+    }
+
+    /** Frees the frame's slot and counts the latency of a decode that ran. */
+    synchronized void onDecodeFinished(long latencyNanos) {
+        inFlight--;
+        if (!adaptive)
+            return;
+        averageLatencyNanos = averageLatencyNanos == 0
+                ? latencyNanos
+                : averageLatencyNanos + LATENCY_SMOOTHING * (latencyNanos - averageLatencyNanos);
+        // With n decoders in parallel, each may be busy maxLoad of the time.
+        long loadIntervalNanos = (long) (averageLatencyNanos / (maxLoad * maxInFlight));
+        intervalNanos = Math.max(minIntervalNanos, loadIntervalNanos);
+        metrics.decodeIntervalMillis.set(TimeUnit.NANOSECONDS.toMillis(intervalNanos));
+    }
+
+    /**
+     * Frees the slot of a frame that was never decoded, such as a stale one.
+     * Its near zero latency would shorten the adaptive interval just when
+     * the decoders are behind.
+     */
+    synchronized void onDecodeCancelled() {
+        inFlight--;
+    }
+
+    /** Nanoseconds until the next frame may be decoded, 0 if one is due now. */
+    synchronized long delayUntilNextDecode(long nowNanos) {
+        return Math.max(0, nextDecodeNanos - nowNanos);
+    }
+}
@@ -0,0 +1,75 @@
+package info.belluco.cordova.bbscanner;
+
+import java.util.List;
+
+/**
+ * Size of the camera frames handed to the decoder, in landscape (sensor)
+ * orientation. It is chosen separately from the size of the preview on
+ * screen, which is scaled to fit the view whatever the frame size.
+ */
+final class FrameSize {
+
+    /** Enough for 1D codes and QR codes that fill the scan region. */
+    static final FrameSize FASTEST = new FrameSize(640, 480);
+    static final FrameSize BALANCED = new FrameSize(1280, 720);
+    /** For small, dense DATA_MATRIX or PDF417 codes. */
+    static final FrameSize DENSE = new FrameSize(1920, 1080);
+
+    final int width;
+    final int height;
+
+    FrameSize(int width, int height) {
+        this.width = Math.max(width, height);
+        this.height = Math.min(width, height);
+    }
+
+    /** "fastest", "balanced" or "dense2d", or null for any other name. */
+    static FrameSize forPolicy(String policy) {
+        if ("fastest".equals(policy))
+            return FASTEST;
+        if ("balanced".equals(policy))
+            return BALANCED;
+        if ("dense2d".equals(policy))
+            return DENSE;
+        return null;
+    }
+
+    long area() {
+        return (long) width * height;
+    }
+
+    /**
+     * The index of the largest of the sizes with no more pixels than this
+     * one, or of the smallest if they all have more.
+     */
+    int choose(List<FrameSize> sizes) {
+        int best = -1;
+        int smallest = -1;
+        for (int i = 0; i < sizes.size(); i++) {
+            long area = sizes.get(i).area();
+            if (smallest < 0 || area < sizes.get(smallest).area())
+                smallest = i;
+            if (area <= area() && (best < 0 || area > sizes.get(best).area()))
+                best = i;
+        }
+        return best >= 0 ? best : smallest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FrameSize))
+            return false;
+        FrameSize other = (FrameSize) o;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
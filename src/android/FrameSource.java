@@ -0,0 +1,23 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Where the decode loop gets its frames from: the camera preview on a
+ * device, or recorded frames replayed off-device. Frames are pulled one at
+ * a time, so a source never delivers faster than the loop asks.
+ */
+interface FrameSource {
+
+    interface Callback {
+        /** May be called on any thread. */
+        void onFrame(PreviewFrame frame);
+
+        void onFrameError(Exception e);
+    }
+
+    /**
+     * Asks for the next frame. The callback is called at most once per
+     * request; a source may drop requests, for instance while the camera is
+     * closed, and the loop asks again after a timeout.
+     */
+    void requestFrame(Callback callback);
+}
@@ -0,0 +1,121 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a list of images on a fixed number of worker threads. Workers
+ * pull the next path from a shared index instead of queueing one task per
+ * image, so at most one image per worker is open at a time however long
+ * the list is. Cancelling lets the images in progress finish and skips the
+ * rest; the listener is told once every worker has stopped.
+ */
+final class ImageBatch {
+
+    interface Inputs {
+        ImageDecoder.Input open(String path);
+    }
+
+    /** Called on the worker threads; completed counts the images done so far. */
+    interface Listener {
+        void onImage(int index, String path, Result[] codes, int completed);
+
+        void onImageError(int index, String path, int completed);
+
+        void onFinished(int completed, boolean cancelled);
+    }
+
+    private final List<String> paths;
+    private final Inputs inputs;
+    private final int maxDimension;
+    private final Set<BarcodeFormat> formats;
+    private final boolean multiple;
+    private final Listener listener;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger runningWorkers = new AtomicInteger();
+    private volatile boolean cancelled;
+    private ExecutorService executor;
+
+    ImageBatch(List<String> paths, Inputs inputs, int maxDimension, Set<BarcodeFormat> formats, boolean multiple,
+               Listener listener) {
+        this.paths = paths;
+        this.inputs = inputs;
+        this.maxDimension = maxDimension;
+        this.formats = formats;
+        this.multiple = multiple;
+        this.listener = listener;
+    }
+
+    int size() {
+        return paths.size();
+    }
+
+    /** Starts at most workers threads, never more than there are images. */
+    synchronized void start(int workers) {
+        int count = Math.max(1, Math.min(workers, paths.size()));
+        runningWorkers.set(count);
+        executor = Executors.newFixedThreadPool(count, new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "BBScanner batch " + threads.incrementAndGet());
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void work() {
+        try {
+            int index;
+            while (!cancelled && (index = next.getAndIncrement()) < paths.size())
+                decode(index, paths.get(index));
+        } finally {
+            if (runningWorkers.decrementAndGet() == 0)
+                listener.onFinished(completed.get(), cancelled && completed.get() < paths.size());
+        }
+    }
+
+    private void decode(int index, String path) {
+        Result[] codes;
+        try {
+            codes = ImageDecoder.decode(inputs.open(path), maxDimension, formats, multiple);
+        } catch (IOException e) {
+            codes = null;
+        } catch (RuntimeException e) {
+            codes = null;
+        } catch (OutOfMemoryError e) {
+            // A single oversized image should not end the batch
+            codes = null;
+        }
+        int done = completed.incrementAndGet();
+        if (codes != null)
+            listener.onImage(index, path, codes, done);
+        else
+            listener.onImageError(index, path, done);
+    }
+}
@@ -0,0 +1,112 @@
+package info.belluco.cordova.bbscanner;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.Result;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decodes codes in still images, without the camera. Large images are
+ * downsampled while they are read, so that their longest side is at most
+ * maxDimension pixels, and decoded with TRY_HARDER by a FrameDecoder for
+ * the requested formats.
+ */
+final class ImageDecoder {
+
+    static final int DEFAULT_MAX_DIMENSION = 2048;
+
+    private static final Map<DecodeHintType, ?> STILL_IMAGE_HINTS =
+            Collections.singletonMap(DecodeHintType.TRY_HARDER, Boolean.TRUE);
+
+    /** Opens the image; called twice, once for its size and once for its pixels. */
+    interface Input {
+        InputStream open() throws IOException;
+    }
+
+    private ImageDecoder() {
+    }
+
+    /** Returns every code found, an empty array if there is none. */
+    static Result[] decode(Input input, int maxDimension, Set<BarcodeFormat> formats, boolean multiple)
+            throws IOException {
+        Bitmap image = load(input, maxDimension);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] luminance;
+        try {
+            luminance = luminance(image);
+        } finally {
+            image.recycle();
+        }
+
+        FrameDecoder decoder = new FrameDecoder(formats, STILL_IMAGE_HINTS, multiple);
+        Result result = decoder.decode(new PlanarYUVLuminanceSource(luminance, width, height,
+                0, 0, width, height, false));
+        if (result == null)
+            return new Result[0];
+        Result[] results = FrameDecoder.getResults(result);
+        return results != null ? results : new Result[] {result};
+    }
+
+    private static Bitmap load(Input input, int maxDimension) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream stream = input.open();
+        try {
+            BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Not an image");
+
+        // Power of two subsampling happens while decoding, so the full size
+        // image is never in memory
+        int longest = Math.max(options.outWidth, options.outHeight);
+        int sampleSize = 1;
+        while (maxDimension > 0 && longest / sampleSize > maxDimension)
+            sampleSize *= 2;
+
+        options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        stream = input.open();
+        try {
+            Bitmap image = BitmapFactory.decodeStream(stream, null, options);
+            if (image == null)
+                throw new IOException("Not an image");
+            return image;
+        } finally {
+            stream.close();
+        }
+    }
+
+    // Reads the image a row at a time, so only one row of ARGB pixels is
+    // held next to the luminance.
+    private static byte[] luminance(Bitmap image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] luminance = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getPixels(row, 0, width, 0, y, width, 1);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int pixel = row[x];
+                int alpha = pixel >>> 24;
+                // ITU-R BT.601 luma; transparent pixels count as white
+                int y8 = (306 * ((pixel >> 16) & 0xff) + 601 * ((pixel >> 8) & 0xff) + 117 * (pixel & 0xff)) >> 10;
+                luminance[offset + x] = (byte) ((y8 * alpha + 255 * (255 - alpha)) / 255);
+            }
+        }
+        return luminance;
+    }
+}
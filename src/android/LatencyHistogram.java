@@ -0,0 +1,95 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in microseconds. Each power of
+ * two is split into four buckets, so percentiles are exact to within 25%.
+ * Recording is a few atomic increments and never blocks the decode or UI
+ * threads; percentiles are computed when the metrics are read.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BUCKET_BITS = 2;
+    /** Covers up to 2^40 microseconds, anything longer goes in the last bucket. */
+    private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketFor(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros))
+            max = maxMicros.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts.set(i, 0);
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    private static int bucketFor(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, (exponent - 1) * SUB_BUCKETS + subBucket);
+    }
+
+    private static long upperBoundMicros(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((SUB_BUCKETS + subBucket) * width) + width - 1;
+    }
+
+    /** Upper bound of the bucket holding the given percentile, 0 if empty. */
+    long percentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            // The last bucket also holds everything longer than it covers
+            if (seen >= rank)
+                return i == BUCKETS - 1 ? maxMicros.get() : Math.min(upperBoundMicros(i), maxMicros.get());
+        }
+        return maxMicros.get();
+    }
+
+    /** Durations are reported in milliseconds. */
+    JSONObject toJSON() throws JSONException {
+        long samples = count.get();
+        JSONObject obj = new JSONObject();
+        obj.put("count", samples);
+        obj.put("mean", samples == 0 ? 0 : sumMicros.get() / (samples * 1000.0));
+        obj.put("p50", percentileMicros(0.50) / 1000.0);
+        obj.put("p90", percentileMicros(0.90) / 1000.0);
+        obj.put("p99", percentileMicros(0.99) / 1000.0);
+        obj.put("max", maxMicros.get() / 1000.0);
+        return obj;
+    }
+}
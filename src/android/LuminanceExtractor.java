@@ -0,0 +1,59 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * Copies the luminance (Y) plane of a preview frame into a caller supplied
+ * buffer, rotated to display orientation and limited to a crop rectangle.
+ * Only the pixels inside the crop are touched, unlike rotating the whole
+ * frame first and cropping afterwards.
+ */
+final class LuminanceExtractor {
+
+    private LuminanceExtractor() {
+    }
+
+    /**
+     * @param data       frame starting with the Y plane, dataHeight rows of dataWidth bytes
+     * @param rowStride  distance between the starts of two rows of data, at least dataWidth
+     * @param rotation   clockwise rotation from sensor to display orientation: 0, 90, 180 or 270
+     * @param cropLeft   crop rectangle, in the coordinates of the rotated frame
+     * @param out        receives cropWidth * cropHeight bytes, row by row
+     */
+    static void extract(byte[] data, int dataWidth, int dataHeight, int rowStride, int rotation,
+                        int cropLeft, int cropTop, int cropWidth, int cropHeight, byte[] out) {
+        switch (rotation) {
+            case 90:
+                // Rotated (x, y) comes from sensor (y, dataHeight - 1 - x)
+                for (int y = 0; y < cropHeight; y++) {
+                    int outRow = y * cropWidth;
+                    int sourceColumn = cropTop + y;
+                    int sourceRow = dataHeight - 1 - cropLeft;
+                    for (int x = 0; x < cropWidth; x++, sourceRow--)
+                        out[outRow + x] = data[sourceRow * rowStride + sourceColumn];
+                }
+                break;
+            case 180:
+                // Rotated (x, y) comes from sensor (dataWidth - 1 - x, dataHeight - 1 - y)
+                for (int y = 0; y < cropHeight; y++) {
+                    int outRow = y * cropWidth;
+                    int source = (dataHeight - 1 - cropTop - y) * rowStride + dataWidth - 1 - cropLeft;
+                    for (int x = 0; x < cropWidth; x++, source--)
+                        out[outRow + x] = data[source];
+                }
+                break;
+            case 270:
+                // Rotated (x, y) comes from sensor (dataWidth - 1 - y, x)
+                for (int y = 0; y < cropHeight; y++) {
+                    int outRow = y * cropWidth;
+                    int sourceColumn = dataWidth - 1 - cropTop - y;
+                    int sourceRow = cropLeft;
+                    for (int x = 0; x < cropWidth; x++, sourceRow++)
+                        out[outRow + x] = data[sourceRow * rowStride + sourceColumn];
+                }
+                break;
+            default:
+                for (int y = 0; y < cropHeight; y++)
+                    System.arraycopy(data, (cropTop + y) * rowStride + cropLeft, out, y * cropWidth, cropWidth);
+                break;
+        }
+    }
+}
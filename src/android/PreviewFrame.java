@@ -0,0 +1,51 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * One frame from a FrameSource, in sensor orientation. data starts with the
+ * luminance plane, dataHeight rows of dataWidth bytes each rowStride bytes
+ * apart: the Y plane of an NV21 or YV12 preview frame, or the Y plane of a
+ * YUV_420_888 image copied as is. The source object is whatever the
+ * FrameSource wraps, such as the camera's SourceData. A FrameSource may
+ * reuse a frame and its data for the frame after next: the decode loop is
+ * done with a frame before it requests the next one.
+ */
+final class PreviewFrame {
+
+    final byte[] data;
+    final int dataWidth;
+    final int dataHeight;
+    final int rowStride;
+    /** Clockwise rotation from sensor to display orientation: 0, 90, 180 or 270. */
+    final int rotation;
+    final Object source;
+    /** System.nanoTime() when the frame was received. */
+    long timestampNanos;
+
+    PreviewFrame(byte[] data, int dataWidth, int dataHeight, int rotation, Object source) {
+        this(data, dataWidth, dataHeight, dataWidth, rotation, source);
+    }
+
+    PreviewFrame(byte[] data, int dataWidth, int dataHeight, int rowStride, int rotation, Object source) {
+        this.data = data;
+        this.dataWidth = dataWidth;
+        this.dataHeight = dataHeight;
+        this.rowStride = rowStride;
+        this.rotation = rotation;
+        this.source = source;
+        this.timestampNanos = System.nanoTime();
+    }
+
+    /** Marks a reused frame as received again, once its data was refilled. */
+    void received() {
+        timestampNanos = System.nanoTime();
+    }
+
+    /** Width once rotated to display orientation. */
+    int displayWidth() {
+        return rotation % 180 != 0 ? dataHeight : dataWidth;
+    }
+
+    int displayHeight() {
+        return rotation % 180 != 0 ? dataWidth : dataHeight;
+    }
+}
@@ -0,0 +1,78 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects scan results and hands them to a sink as one JSON array, either
+ * when the oldest pending result is intervalMillis old or when maxSize
+ * results are pending, whichever comes first. Results keep their order,
+ * and so do the buffers of BinaryPayload results.
+ */
+final class ResultBatcher {
+
+    interface Sink {
+        /** @param buffers the binary data of the results in the batch, usually none */
+        void flush(JSONArray batch, List<byte[]> buffers);
+    }
+
+    private final long intervalMillis;
+    private final int maxSize;
+    private final ScheduledExecutorService timer;
+    private final Sink sink;
+    private JSONArray pending = new JSONArray();
+    private List<byte[]> pendingBuffers = new ArrayList<byte[]>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param intervalMillis flush interval, or 0 to flush on size only
+     * @param maxSize        flush size, or 0 to flush on the interval only
+     */
+    ResultBatcher(long intervalMillis, int maxSize, ScheduledExecutorService timer, Sink sink) {
+        this.intervalMillis = intervalMillis;
+        this.maxSize = maxSize > 0 ? maxSize : Integer.MAX_VALUE;
+        this.timer = timer;
+        this.sink = sink;
+    }
+
+    synchronized void add(Object result) {
+        if (result instanceof BinaryPayload) {
+            pending.put(((BinaryPayload) result).json);
+            pendingBuffers.addAll(((BinaryPayload) result).buffers);
+        } else {
+            pending.put(result);
+        }
+        if (pending.length() >= maxSize) {
+            flush();
+        } else if (pending.length() == 1 && intervalMillis > 0) {
+            scheduledFlush = timer.schedule(flushTask, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Sends the pending results now, if there are any. */
+    synchronized void flush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (pending.length() == 0)
+            return;
+        JSONArray batch = pending;
+        List<byte[]> buffers = pendingBuffers;
+        pending = new JSONArray();
+        pendingBuffers = new ArrayList<byte[]>();
+        sink.flush(batch, buffers);
+    }
+}
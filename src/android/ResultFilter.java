@@ -0,0 +1,29 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.Result;
+
+import java.util.Set;
+
+/**
+ * Decides which decoded codes are delivered: only codes of the requested
+ * formats and, when a DuplicateFilter is set, not seen within its window.
+ * Only depends on ZXing core, like FrameDecoder.
+ */
+final class ResultFilter {
+
+    private final Set<BarcodeFormat> formats;
+    private final DuplicateFilter duplicates;
+
+    /** @param duplicates null to deliver repeated codes */
+    ResultFilter(Set<BarcodeFormat> formats, DuplicateFilter duplicates) {
+        this.formats = formats;
+        this.duplicates = duplicates;
+    }
+
+    boolean accept(Result result, long nowMillis) {
+        if (result.getText() == null || !formats.contains(result.getBarcodeFormat()))
+            return false;
+        return duplicates == null || duplicates.accept(result.getText(), result.getBarcodeFormat(), nowMillis);
+    }
+}
@@ -0,0 +1,98 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.Result;
+import com.google.zxing.ResultMetadataType;
+import com.google.zxing.ResultPoint;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON form of a decoded code, as returned by multiBarcode scans and
+ * decodeImage: {text, format, points}. Scans with richResults add the raw
+ * bytes, metadata and timings.
+ */
+final class ResultJSON {
+
+    private ResultJSON() {
+    }
+
+    static JSONObject toJSON(Result code) throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("text", code.getText());
+        obj.put("format", code.getBarcodeFormat().name());
+        obj.put("points", pointsToJSON(code.getResultPoints()));
+        return obj;
+    }
+
+    /**
+     * Adds the raw bytes and the byte segments, if any, to buffers in that
+     * order; rawBytes and byteSegments say whether each one was added.
+     */
+    static JSONObject toRichJSON(Result code, long frameNanos, long decodeNanos, List<byte[]> buffers)
+            throws JSONException {
+        JSONObject obj = toJSON(code);
+        byte[] rawBytes = code.getRawBytes();
+        obj.put("rawBytes", rawBytes != null);
+        if (rawBytes != null)
+            buffers.add(rawBytes);
+        byte[] byteSegments = byteSegments(code);
+        obj.put("byteSegments", byteSegments != null);
+        if (byteSegments != null)
+            buffers.add(byteSegments);
+        obj.put("numBits", code.getNumBits());
+        obj.put("metadata", metadataToJSON(code.getResultMetadata()));
+        long sinceFrame = System.nanoTime() - frameNanos;
+        obj.put("frameTimestamp", System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(sinceFrame));
+        obj.put("latency", sinceFrame / 1e6);
+        obj.put("decodeTime", decodeNanos / 1e6);
+        return obj;
+    }
+
+    private static byte[] byteSegments(Result code) {
+        Map<ResultMetadataType, Object> metadata = code.getResultMetadata();
+        if (metadata == null || !(metadata.get(ResultMetadataType.BYTE_SEGMENTS) instanceof List))
+            return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object segment : (List<?>) metadata.get(ResultMetadataType.BYTE_SEGMENTS)) {
+            if (segment instanceof byte[])
+                bytes.write((byte[]) segment, 0, ((byte[]) segment).length);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Plain values only, such as ERROR_CORRECTION_LEVEL or STRUCTURED_APPEND_SEQUENCE;
+    // byte segments are sent as binary
+    private static JSONObject metadataToJSON(Map<ResultMetadataType, Object> metadata) throws JSONException {
+        JSONObject obj = new JSONObject();
+        if (metadata == null)
+            return obj;
+        for (Map.Entry<ResultMetadataType, Object> entry : metadata.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String || value instanceof Number || value instanceof Boolean)
+                obj.put(entry.getKey().name(), value);
+        }
+        return obj;
+    }
+
+    private static JSONArray pointsToJSON(ResultPoint[] points) throws JSONException {
+        JSONArray list = new JSONArray();
+        if (points == null)
+            return list;
+        for (ResultPoint point : points) {
+            if (point == null)
+                continue;
+            JSONObject obj = new JSONObject();
+            obj.put("x", point.getX());
+            obj.put("y", point.getY());
+            list.put(obj);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,40 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Creates decoders that only run the readers of the formats requested by
+ * the current scan, optionally returning every code in the frame. Also
+ * carries the current scan region, which the DecodeLoop cuts out of each
+ * frame before decoding.
+ */
+final class ScanDecoderFactory {
+
+    private final Set<BarcodeFormat> formats;
+    private final ScanRegion region;
+    private final boolean multiple;
+
+    ScanDecoderFactory(Set<BarcodeFormat> formats, ScanRegion region, boolean multiple) {
+        this.formats = formats;
+        this.region = region;
+        this.multiple = multiple;
+    }
+
+    boolean isConfiguredFor(Set<BarcodeFormat> formats, ScanRegion region, boolean multiple) {
+        return this.formats.equals(formats) && this.region == region && this.multiple == multiple;
+    }
+
+    /** Part of the frame to decode, null for the whole frame. */
+    ScanRegion getRegion() {
+        return region;
+    }
+
+    /** Decoders are not thread safe, each decoding thread needs its own. */
+    FrameDecoder createDecoder() {
+        return new FrameDecoder(formats, Collections.<DecodeHintType, Object>emptyMap(), multiple);
+    }
+}
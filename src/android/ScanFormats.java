@@ -0,0 +1,104 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.DecodeHintType;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the format names accepted by the JS API to ZXing formats and builds
+ * the decode hints for a set of requested formats.
+ */
+final class ScanFormats {
+
+    /** Formats decoded when a scan does not ask for any specific format. */
+    static final Set<BarcodeFormat> DEFAULT_FORMATS = Collections.unmodifiableSet(EnumSet.of(
+            BarcodeFormat.QR_CODE,
+            BarcodeFormat.DATA_MATRIX,
+            BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E,
+            BarcodeFormat.EAN_8,
+            BarcodeFormat.EAN_13,
+            BarcodeFormat.CODE_39,
+            BarcodeFormat.CODE_93,
+            BarcodeFormat.CODE_128,
+            BarcodeFormat.CODABAR,
+            BarcodeFormat.ITF,
+            BarcodeFormat.RSS_14,
+            BarcodeFormat.PDF_417,
+            BarcodeFormat.RSS_EXPANDED));
+
+    private static final int[] EAN_EXTENSION_LENGTHS = {2, 5};
+    // The formats an EAN extension can be attached to
+    private static final Set<BarcodeFormat> EAN_UPC_FORMATS = Collections.unmodifiableSet(EnumSet.of(
+            BarcodeFormat.UPC_A, BarcodeFormat.UPC_E, BarcodeFormat.EAN_8, BarcodeFormat.EAN_13));
+
+    private ScanFormats() {
+    }
+
+    /**
+     * Returns the ZXing format for a JS format name, or null if the name is
+     * not a known format.
+     */
+    static BarcodeFormat forName(String format) {
+        if (format == null)
+            return null;
+        switch (format) {
+            case "AZTEC": return BarcodeFormat.AZTEC;
+            case "QR_CODE": return BarcodeFormat.QR_CODE;
+            case "UPC_A": return BarcodeFormat.UPC_A;
+            case "UPC_E": return BarcodeFormat.UPC_E;
+            case "EAN_13": return BarcodeFormat.EAN_13;
+            case "EAN_8": return BarcodeFormat.EAN_8;
+            case "CODE_39": return BarcodeFormat.CODE_39;
+            case "CODE_93": return BarcodeFormat.CODE_93;
+            case "CODE_128": return BarcodeFormat.CODE_128;
+            case "PDF417": return BarcodeFormat.PDF_417;
+            case "ITF": return BarcodeFormat.ITF;
+            case "DATA_MATRIX": return BarcodeFormat.DATA_MATRIX;
+            case "CODABAR": return BarcodeFormat.CODABAR;
+            case "RSS_14": return BarcodeFormat.RSS_14;
+            case "RSS_EXPANDED": return BarcodeFormat.RSS_EXPANDED;
+            case "UPC_EAN_EXTENSION": return BarcodeFormat.UPC_EAN_EXTENSION;
+        }
+        return null;
+    }
+
+    /**
+     * Resolves a list of JS format names. Unknown names are ignored; if none
+     * of the names is known the default formats are returned. ZXing only
+     * reads UPC_EAN_EXTENSION as part of an EAN or UPC code, so without any
+     * of those it comes with all four.
+     */
+    static Set<BarcodeFormat> forNames(Collection<String> names) {
+        EnumSet<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        for (String name : names) {
+            BarcodeFormat format = forName(name);
+            if (format != null)
+                formats.add(format);
+        }
+        if (formats.isEmpty())
+            return DEFAULT_FORMATS;
+        if (formats.contains(BarcodeFormat.UPC_EAN_EXTENSION) && Collections.disjoint(formats, EAN_UPC_FORMATS))
+            formats.addAll(EAN_UPC_FORMATS);
+        return Collections.unmodifiableSet(formats);
+    }
+
+    /**
+     * Builds the decode hints for the given formats. POSSIBLE_FORMATS limits
+     * MultiFormatReader to the readers of those formats; the remaining hints
+     * only apply when a format that needs them was requested.
+     */
+    static Map<DecodeHintType, Object> hints(Set<BarcodeFormat> formats) {
+        Map<DecodeHintType, Object> hints = new EnumMap<DecodeHintType, Object>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formats));
+        if (formats.contains(BarcodeFormat.UPC_EAN_EXTENSION))
+            hints.put(DecodeHintType.ALLOWED_EAN_EXTENSIONS, EAN_EXTENSION_LENGTHS);
+        return hints;
+    }
+}
@@ -0,0 +1,89 @@
+package info.belluco.cordova.bbscanner;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms reported by the getMetrics action. They
+ * are updated from the decode and UI threads and read from the Cordova
+ * thread pool, so they are plain atomics rather than being guarded by a
+ * lock.
+ */
+final class ScanMetrics {
+
+    final AtomicLong duplicatesSuppressed = new AtomicLong();
+    final AtomicLong duplicateCacheEvictions = new AtomicLong();
+    final AtomicLong batchesSent = new AtomicLong();
+    final AtomicLong framesReceived = new AtomicLong();
+    final AtomicLong framesDecoded = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+    final AtomicLong successfulDecodes = new AtomicLong();
+    final AtomicLong decodesCancelled = new AtomicLong();
+    final AtomicLong staleResultsIgnored = new AtomicLong();
+    final AtomicLong frameBufferAllocations = new AtomicLong();
+    final AtomicLong frameBufferReuses = new AtomicLong();
+    final AtomicLong commandsCoalesced = new AtomicLong();
+    final AtomicLong warmPrepares = new AtomicLong();
+    final AtomicLong framesSkippedBlurry = new AtomicLong();
+    final AtomicLong framesSkippedMotion = new AtomicLong();
+    final AtomicLong decodeEscalations = new AtomicLong();
+    final AtomicLong escalatedResults = new AtomicLong();
+
+    /** Current decode interval set by the frame scheduler; not cleared by reset. */
+    final AtomicLong decodeIntervalMillis = new AtomicLong();
+    /** Sharpness and motion of the last frame checked by a FrameQualityFilter; not cleared by reset. */
+    final AtomicLong frameSharpness = new AtomicLong();
+    final AtomicLong frameMotion = new AtomicLong();
+    /** Current DecodeEscalation level; not cleared by reset. */
+    final AtomicLong decodeEscalationLevel = new AtomicLong();
+
+    final LatencyHistogram decodeLatency = new LatencyHistogram();
+    final LatencyHistogram timeToFirstResult = new LatencyHistogram();
+    final LatencyHistogram cameraOpenTime = new LatencyHistogram();
+    final LatencyHistogram bridgeSendTime = new LatencyHistogram();
+
+    void reset() {
+        AtomicLong[] counters = {duplicatesSuppressed, duplicateCacheEvictions, batchesSent,
+                framesReceived, framesDecoded, framesDropped, successfulDecodes, decodesCancelled,
+                staleResultsIgnored, frameBufferAllocations, frameBufferReuses, commandsCoalesced, warmPrepares,
+                framesSkippedBlurry, framesSkippedMotion, decodeEscalations, escalatedResults};
+        for (AtomicLong counter : counters)
+            counter.set(0);
+        decodeLatency.reset();
+        timeToFirstResult.reset();
+        cameraOpenTime.reset();
+        bridgeSendTime.reset();
+    }
+
+    JSONObject toJSON() throws JSONException {
+        JSONObject obj = new JSONObject();
+        obj.put("duplicatesSuppressed", duplicatesSuppressed.get());
+        obj.put("duplicateCacheEvictions", duplicateCacheEvictions.get());
+        obj.put("batchesSent", batchesSent.get());
+        obj.put("framesReceived", framesReceived.get());
+        obj.put("framesDecoded", framesDecoded.get());
+        obj.put("framesDropped", framesDropped.get());
+        obj.put("successfulDecodes", successfulDecodes.get());
+        obj.put("decodeIntervalMillis", decodeIntervalMillis.get());
+        obj.put("decodesCancelled", decodesCancelled.get());
+        obj.put("staleResultsIgnored", staleResultsIgnored.get());
+        obj.put("frameBufferAllocations", frameBufferAllocations.get());
+        obj.put("frameBufferReuses", frameBufferReuses.get());
+        obj.put("commandsCoalesced", commandsCoalesced.get());
+        obj.put("warmPrepares", warmPrepares.get());
+        obj.put("framesSkippedBlurry", framesSkippedBlurry.get());
+        obj.put("framesSkippedMotion", framesSkippedMotion.get());
+        obj.put("frameSharpness", frameSharpness.get());
+        obj.put("frameMotion", frameMotion.get());
+        obj.put("decodeEscalations", decodeEscalations.get());
+        obj.put("escalatedResults", escalatedResults.get());
+        obj.put("decodeEscalationLevel", decodeEscalationLevel.get());
+        obj.put("decodeLatency", decodeLatency.toJSON());
+        obj.put("timeToFirstResult", timeToFirstResult.toJSON());
+        obj.put("cameraOpenTime", cameraOpenTime.toJSON());
+        obj.put("bridgeSendTime", bridgeSendTime.toJSON());
+        return obj;
+    }
+}
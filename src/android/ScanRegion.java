@@ -0,0 +1,94 @@
+package info.belluco.cordova.bbscanner;
+
+/**
+ * A rectangle in normalized [0, 1] coordinates. Used both for the region
+ * requested by setScanRegion (relative to the webview) and for the same
+ * region expressed relative to the frame handed to the decoder.
+ */
+final class ScanRegion {
+
+    final float left;
+    final float top;
+    final float right;
+    final float bottom;
+
+    ScanRegion(float left, float top, float right, float bottom) {
+        this.left = clamp(left);
+        this.top = clamp(top);
+        this.right = Math.max(this.left, clamp(right));
+        this.bottom = Math.max(this.top, clamp(bottom));
+    }
+
+    private static float clamp(float value) {
+        return Math.min(1f, Math.max(0f, value));
+    }
+
+    boolean isEmpty() {
+        return right <= left || bottom <= top;
+    }
+
+    /**
+     * Re-expresses this region relative to the frame rectangle given in the
+     * same coordinate space. Parts outside the frame are dropped, so the
+     * result is empty when the two do not overlap.
+     */
+    ScanRegion relativeTo(float frameLeft, float frameTop, float frameRight, float frameBottom) {
+        float frameWidth = frameRight - frameLeft;
+        float frameHeight = frameBottom - frameTop;
+        if (frameWidth <= 0 || frameHeight <= 0)
+            return new ScanRegion(0, 0, 0, 0);
+        return new ScanRegion(
+                (left - frameLeft) / frameWidth,
+                (top - frameTop) / frameHeight,
+                (right - frameLeft) / frameWidth,
+                (bottom - frameTop) / frameHeight);
+    }
+
+    /**
+     * The inverse of relativeTo: re-expresses this region, given relative to
+     * the frame rectangle, in the coordinate space of that rectangle.
+     */
+    ScanRegion within(float frameLeft, float frameTop, float frameRight, float frameBottom) {
+        float frameWidth = frameRight - frameLeft;
+        float frameHeight = frameBottom - frameTop;
+        return new ScanRegion(
+                frameLeft + left * frameWidth,
+                frameTop + top * frameHeight,
+                frameLeft + right * frameWidth,
+                frameTop + bottom * frameHeight);
+    }
+
+    /**
+     * Maps this region of an image that was rotated clockwise by degrees
+     * back onto the image before the rotation, e.g. from an upright preview
+     * frame onto the camera sensor.
+     */
+    ScanRegion unrotate(int degrees) {
+        switch ((degrees % 360 + 360) % 360) {
+            case 90:
+                return new ScanRegion(top, 1 - right, bottom, 1 - left);
+            case 180:
+                return new ScanRegion(1 - right, 1 - bottom, 1 - left, 1 - top);
+            case 270:
+                return new ScanRegion(1 - bottom, left, 1 - top, right);
+            default:
+                return this;
+        }
+    }
+
+    int cropLeft(int width) {
+        return Math.min(width - 1, (int) (left * width));
+    }
+
+    int cropTop(int height) {
+        return Math.min(height - 1, (int) (top * height));
+    }
+
+    int cropWidth(int width) {
+        return Math.max(1, Math.min(width - cropLeft(width), Math.round((right - left) * width)));
+    }
+
+    int cropHeight(int height) {
+        return Math.max(1, Math.min(height - cropTop(height), Math.round((bottom - top) * height)));
+    }
+}
@@ -0,0 +1,238 @@
+package info.belluco.cordova.bbscanner;
+
+import com.google.zxing.Result;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The scan state machine: scan, pause, resume and stop, and the path from a
+ * decoded frame to the scan's callback. A single scan ends with its first
+ * result; in multipleScan mode results keep coming, optionally batched,
+ * until the scan is paused or stopped. Decoding follows the state through
+ * the current DecodeLoop.
+ *
+ * Does not depend on Android or Cordova, so scans can be driven off-device
+ * by a replayed FrameSource.
+ */
+final class ScanSession implements DecodeLoop.Listener {
+
+    interface ResultCallback {
+        /**
+         * @param payload the text of a code, or a JSONArray for multiBarcode frames and batches;
+         *                a BinaryPayload with richResults
+         */
+        void sendResult(Object payload, boolean keepCallback);
+
+        /** The scan was stopped before it produced a result. */
+        void cancel();
+    }
+
+    private final ScanMetrics metrics;
+    private DecodeLoop loop;
+    private volatile boolean scanning;
+    private ResultCallback callback;
+    private boolean multipleScan;
+    private boolean richResults;
+    private ResultFilter filter = new ResultFilter(ScanFormats.DEFAULT_FORMATS, null);
+    private ResultBatcher batcher;
+    private FrameScheduler scheduler;
+    private int workers = 1;
+    private FrameQualityFilter qualityFilter;
+    private DecodeEscalation escalation;
+    private long startedNanos;
+    private boolean firstResultPending;
+
+    ScanSession(ScanMetrics metrics) {
+        this.metrics = metrics;
+        this.scheduler = FrameScheduler.unlimited(metrics);
+    }
+
+    /** Replaces the loop decoding for this session, stopping the previous one. */
+    synchronized void setDecodeLoop(DecodeLoop loop) {
+        if (this.loop != null && this.loop != loop)
+            this.loop.stop();
+        this.loop = loop;
+    }
+
+    /**
+     * Sets the options of the next scan. Results still waiting in the
+     * previous batch are sent first.
+     *
+     * @param batcher     null to send every result as it comes
+     * @param richResults send ResultJSON.toRichJSON objects instead of the text
+     */
+    synchronized void configure(boolean multipleScan, ResultFilter filter, ResultBatcher batcher,
+                                FrameScheduler scheduler, int workers, boolean richResults) {
+        flush();
+        this.multipleScan = multipleScan;
+        this.richResults = richResults;
+        this.filter = filter;
+        this.batcher = multipleScan ? batcher : null;
+        this.scheduler = scheduler;
+        this.workers = workers;
+    }
+
+    /** Skips blurry or moving frames from the next start or resume; null to decode them all. */
+    synchronized void setQualityFilter(FrameQualityFilter qualityFilter) {
+        this.qualityFilter = qualityFilter;
+    }
+
+    /** Decodes harder after misses from the next start or resume; null to always decode fast. */
+    synchronized void setEscalation(DecodeEscalation escalation) {
+        this.escalation = escalation;
+    }
+
+    boolean isScanning() {
+        return scanning;
+    }
+
+    synchronized ResultCallback getCallback() {
+        return callback;
+    }
+
+    /**
+     * Starts a scan that reports to callback. Decoding only starts with
+     * startDecoding, once the camera is ready. Starting again with the same
+     * callback, as happens once the camera has been set up, keeps the scan's
+     * start time.
+     */
+    synchronized void start(ResultCallback callback) {
+        if (!scanning || callback != this.callback) {
+            startedNanos = System.nanoTime();
+            firstResultPending = true;
+        }
+        scanning = true;
+        this.callback = callback;
+    }
+
+    synchronized void startDecoding() {
+        if (scanning && loop != null)
+            loop.start(scheduler, workers, qualityFilter, escalation);
+    }
+
+    /**
+     * Ends the scan and returns its callback, or null if there was no scan.
+     * Pending batched results are sent first.
+     */
+    synchronized ResultCallback stop() {
+        scanning = false;
+        flush();
+        if (loop != null)
+            loop.stop();
+        ResultCallback stopped = callback;
+        callback = null;
+        return stopped;
+    }
+
+    /** Returns false if there was no scan to pause. */
+    synchronized boolean pause() {
+        if (!scanning)
+            return false;
+        scanning = false;
+        flush();
+        if (loop != null)
+            loop.stop();
+        return true;
+    }
+
+    /** Returns false if the scan was not paused. */
+    synchronized boolean resume() {
+        if (scanning)
+            return false;
+        scanning = true;
+        if (loop != null)
+            loop.start(scheduler, workers, qualityFilter, escalation);
+        return true;
+    }
+
+    /** Sends the results still waiting in the current batch, if any. */
+    synchronized void flush() {
+        if (batcher != null)
+            batcher.flush();
+    }
+
+    @Override
+    public void onResult(Result result, long frameNanos, long decodeNanos) {
+        Object payload;
+        ResultCallback target;
+        boolean keepCallback;
+        synchronized (this) {
+            if (!scanning || callback == null)
+                return;
+
+            long now = System.currentTimeMillis();
+            Result[] codes = FrameDecoder.getResults(result);
+            if (codes != null)
+                payload = toJSON(codes, now, frameNanos, decodeNanos);
+            else if (!filter.accept(result, now))
+                payload = null;
+            else if (richResults)
+                payload = toRichJSON(new Result[] {result}, frameNanos, decodeNanos, false);
+            else
+                payload = result.getText();
+            if (payload == null)
+                return;
+
+            if (firstResultPending) {
+                firstResultPending = false;
+                metrics.timeToFirstResult.record(System.nanoTime() - startedNanos);
+            }
+
+            if (multipleScan && batcher != null) {
+                batcher.add(payload);
+                return;
+            }
+
+            target = callback;
+            keepCallback = multipleScan;
+            if (!multipleScan) {
+                scanning = false;
+                if (loop != null)
+                    loop.stop();
+                callback = null;
+            }
+        }
+        target.sendResult(payload, keepCallback);
+    }
+
+    // All the codes of one frame that pass the filter, as an array of
+    // {text, format, points} or of rich results, or null if none does.
+    private Object toJSON(Result[] results, long now, long frameNanos, long decodeNanos) {
+        List<Result> accepted = new ArrayList<Result>(results.length);
+        for (Result code : results) {
+            if (filter.accept(code, now))
+                accepted.add(code);
+        }
+        if (accepted.isEmpty())
+            return null;
+        Result[] codes = accepted.toArray(new Result[accepted.size()]);
+        if (richResults)
+            return toRichJSON(codes, frameNanos, decodeNanos, true);
+        JSONArray list = new JSONArray();
+        try {
+            for (Result code : codes)
+                list.put(ResultJSON.toJSON(code));
+        } catch (JSONException e) {
+            return null;
+        }
+        return list;
+    }
+
+    // The rich form of the codes, as an array if asArray is set, or else of
+    // the only one.
+    private BinaryPayload toRichJSON(Result[] codes, long frameNanos, long decodeNanos, boolean asArray) {
+        List<byte[]> buffers = new ArrayList<byte[]>();
+        JSONArray list = new JSONArray();
+        try {
+            for (Result code : codes)
+                list.put(ResultJSON.toRichJSON(code, frameNanos, decodeNanos, buffers));
+            return new BinaryPayload(asArray ? list : list.get(0), buffers);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
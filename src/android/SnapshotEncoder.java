@@ -0,0 +1,151 @@
+package info.belluco.cordova.bbscanner;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Base64;
+
+import com.journeyapps.barcodescanner.SourceData;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Encodes preview snapshots for the snap action. The output buffer and the
+ * downscaled bitmap are kept between calls and reused while the snapshot
+ * size does not change. Not thread safe; callers synchronize.
+ */
+final class SnapshotEncoder {
+
+    /** Snapshot files kept in the directory; older ones are deleted. */
+    static final int MAX_SNAPSHOT_FILES = 10;
+    private static final String FILE_PREFIX = "snap-";
+
+    static final class Options {
+        Bitmap.CompressFormat format = Bitmap.CompressFormat.PNG;
+        int quality = 100;
+        int maxDimension = 0;
+        boolean toFile = false;
+    }
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect sourceRect = new Rect();
+    private final Rect targetRect = new Rect();
+    private Bitmap scaled;
+    private Canvas canvas;
+
+    /**
+     * Converts the cropped preview frame to a bitmap no larger than
+     * maxDimension. Most of the reduction is done by subsampling while the
+     * frame is decoded; the rest is drawn into the reused bitmap.
+     */
+    Bitmap toBitmap(SourceData sourceData, int maxDimension) {
+        Rect crop = sourceData.getCropRect();
+        int width = sourceData.isRotated() ? crop.height() : crop.width();
+        int height = sourceData.isRotated() ? crop.width() : crop.height();
+        if (maxDimension <= 0 || Math.max(width, height) <= maxDimension)
+            return sourceData.getBitmap();
+
+        int sampleFactor = 1;
+        while (Math.max(width, height) / (sampleFactor * 2) >= maxDimension)
+            sampleFactor *= 2;
+        return scale(sourceData.getBitmap(sampleFactor), maxDimension);
+    }
+
+    /**
+     * Returns the image if it is no larger than maxDimension, otherwise draws
+     * it into the reused bitmap and recycles it.
+     */
+    Bitmap scale(Bitmap sampled, int maxDimension) {
+        if (maxDimension <= 0 || Math.max(sampled.getWidth(), sampled.getHeight()) <= maxDimension)
+            return sampled;
+
+        float scale = (float) maxDimension / Math.max(sampled.getWidth(), sampled.getHeight());
+        int targetWidth = Math.max(1, Math.round(sampled.getWidth() * scale));
+        int targetHeight = Math.max(1, Math.round(sampled.getHeight() * scale));
+        if (scaled == null || scaled.getWidth() != targetWidth || scaled.getHeight() != targetHeight) {
+            if (scaled != null)
+                scaled.recycle();
+            scaled = Bitmap.createBitmap(targetWidth, targetHeight, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(scaled);
+        }
+        sourceRect.set(0, 0, sampled.getWidth(), sampled.getHeight());
+        targetRect.set(0, 0, targetWidth, targetHeight);
+        canvas.drawBitmap(sampled, sourceRect, targetRect, paint);
+        sampled.recycle();
+        return scaled;
+    }
+
+    String toBase64(Bitmap image, Options options) {
+        buffer.reset();
+        image.compress(options.format, options.quality, buffer);
+        return Base64.encodeToString(buffer.toByteArray(), Base64.DEFAULT);
+    }
+
+    /**
+     * Compresses straight into a new file, without an intermediate byte
+     * array. Only the last MAX_SNAPSHOT_FILES snapshots are kept.
+     */
+    File toFile(Bitmap image, Options options, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create " + directory);
+        File file = File.createTempFile(FILE_PREFIX, extension(options.format), directory);
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        boolean written = false;
+        try {
+            if (!image.compress(options.format, options.quality, out))
+                throw new IOException("Cannot encode snapshot");
+            written = true;
+        } finally {
+            out.close();
+            if (!written)
+                file.delete();
+        }
+        deleteOldSnapshots(directory);
+        return file;
+    }
+
+    // Deletes all but the newest MAX_SNAPSHOT_FILES snapshots
+    private static void deleteOldSnapshots(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().startsWith(FILE_PREFIX);
+            }
+        });
+        if (files == null || files.length <= MAX_SNAPSHOT_FILES)
+            return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = b.lastModified() - a.lastModified();
+                return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+            }
+        });
+        for (int i = MAX_SNAPSHOT_FILES; i < files.length; i++)
+            files[i].delete();
+    }
+
+    /** Releases the snapshot if it is not the reused bitmap. */
+    void release(Bitmap image) {
+        if (image != scaled)
+            image.recycle();
+    }
+
+    private static String extension(Bitmap.CompressFormat format) {
+        switch (format) {
+            case JPEG: return ".jpg";
+            case WEBP: return ".webp";
+            default: return ".png";
+        }
+    }
+}
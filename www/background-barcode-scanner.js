@@ -47,7 +47,10 @@ function convertStatus(statusDictionary) {
 		canOpenSettings: stringToBool(statusDictionary.canOpenSettings),
 		canEnableLight: stringToBool(statusDictionary.canEnableLight),
 		canChangeCamera: stringToBool(statusDictionary.canChangeCamera),
-		currentCamera: parseInt(statusDictionary.currentCamera)
+		currentCamera: parseInt(statusDictionary.currentCamera),
+		captureBackend: statusDictionary.captureBackend,
+		zoom: parseFloat(statusDictionary.zoom),
+		frameSize: statusDictionary.frameSize
 	};
 }
 
@@ -124,6 +127,13 @@ function errorCallback(callback) {
 					_message: 'The device is unable to open settings.'
 				};
 			break;
+			case 9:
+				ScannerError = {
+					name: 'IMAGE_UNREADABLE',
+					code: 9,
+					_message: 'The image could not be read.'
+				};
+			break;
 			default:
 				ScannerError = {
 					name: 'UNEXPECTED_ERROR',
@@ -159,14 +169,35 @@ function doneCallback(callback, clear) {
 	};
 }
 
-exports.prepare = function(callback) {
-	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'prepare', []);
+// On Android, prepare, destroy, show, hide, stop, pausePreview, resumePreview,
+// enableLight, disableLight and useCamera run one at a time, in call order.
+// A call that repeats the one just before it with the same arguments, while
+// that one is still pending, is not run again: its callback only gets the
+// current status.
+exports.prepare = function(options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = null;
+	}
+	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'prepare', options ? [options] : []);
 }
 
 exports.destroy = function(callback) {
 	exec(doneCallback(callback, true), null, 'BBScanner', 'destroy', []);
 }
 
+function attachBuffers(result, buffers) {
+	if (Array.isArray(result)) {
+		for (var i = 0; i < result.length; i++)
+			attachBuffers(result[i], buffers);
+		return;
+	}
+	if (!result || typeof result !== 'object')
+		return;
+	result.rawBytes = result.rawBytes ? buffers.shift() : null;
+	result.byteSegments = result.byteSegments ? buffers.shift() : null;
+}
+
 exports.scan = function(options, callback) {
 	if ( typeof options == 'function' ){
 		callback = options;
@@ -176,6 +207,10 @@ exports.scan = function(options, callback) {
 		throw new Error('No callback provided to scan method.');
 	}
 	var success = function(result) {
+		if (options && options.richResults) {
+			// The binary fields follow the result as ArrayBuffers, in order
+			attachBuffers(result, Array.prototype.slice.call(arguments, 1));
+		}
 		callback(null, result);
 	};
 	exec(success, errorCallback(callback), 'BBScanner', 'scan', [options]);
@@ -230,11 +265,111 @@ exports.getStatus = function(callback) {
 	exec(doneCallback(callback), null, 'BBScanner', 'getStatus', []);
 }
 
-exports.snap = function(callback) {
+// The callback is called with the current status, then every time a field
+// of the status changes, until offStatusChange is called.
+exports.onStatusChange = function(callback) {
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to onStatusChange method.');
+	}
+	exec(doneCallback(callback), null, 'BBScanner', 'subscribeStatus', []);
+}
+
+exports.offStatusChange = function(callback) {
+	exec(callback || null, null, 'BBScanner', 'unsubscribeStatus', []);
+}
+
+exports.setScanRegion = function(region, callback) {
+	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'setScanRegion', [region || null]);
+}
+
+exports.setZoom = function(zoom, callback) {
+	exec(successCallback(callback), errorCallback(callback), 'BBScanner', 'setZoom', [zoom]);
+}
+
+exports.getMetrics = function(callback) {
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to getMetrics method.');
+	}
+	exec(callback, null, 'BBScanner', 'getMetrics', []);
+}
+
+exports.resetMetrics = function(callback) {
+	exec(callback || null, null, 'BBScanner', 'resetMetrics', []);
+}
+
+exports.snap = function(options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = null;
+	}
 	if ( !callback || typeof callback !== 'function') {
 		throw new Error('No callback provided to snap method.');
 	}
-	exec(callback, null, 'BBScanner', 'snap', []);
+	exec(callback, null, 'BBScanner', 'snap', options ? [options] : []);
+}
+
+// image is a file path or URI, an ArrayBuffer, or an options object with
+// path or base64 data.
+exports.decodeImage = function(image, options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to decodeImage method.');
+	}
+	var args;
+	if (image instanceof ArrayBuffer) {
+		args = [options || {}, image];
+	} else if (typeof image == 'string') {
+		options = options || {};
+		options.path = image;
+		args = [options];
+	} else {
+		// Options given separately apply too; the image's own fields win
+		var merged = {}, key;
+		for (key in options) {
+			if (options.hasOwnProperty(key)) {
+				merged[key] = options[key];
+			}
+		}
+		for (key in image) {
+			if (image.hasOwnProperty(key)) {
+				merged[key] = image[key];
+			}
+		}
+		args = [merged];
+	}
+	var success = function(codes) {
+		callback(null, codes);
+	};
+	exec(success, errorCallback(callback), 'BBScanner', 'decodeImage', args);
+}
+
+// images is an array of file paths or URIs, or a directory. The callback is
+// called for every image and a last time with an event of type 'done'.
+exports.decodeImages = function(images, options, callback) {
+	if ( typeof options == 'function' ){
+		callback = options;
+		options  = {};
+	}
+	if ( !callback || typeof callback !== 'function') {
+		throw new Error('No callback provided to decodeImages method.');
+	}
+	options = options || {};
+	if (Array.isArray(images)) {
+		options.paths = images;
+	} else {
+		options.directory = images;
+	}
+	var success = function(event) {
+		callback(null, event);
+	};
+	exec(success, errorCallback(callback), 'BBScanner', 'decodeImages', [options]);
+}
+
+exports.cancelDecodeImages = function(callback) {
+	exec(callback || null, null, 'BBScanner', 'cancelDecodeImages', []);
 }
 
 exports.pause = function(callback) {